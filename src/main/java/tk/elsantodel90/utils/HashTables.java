@@ -0,0 +1,63 @@
+/*
+ * Copyright 2020 Agustín Santiago Gutiérrez
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package tk.elsantodel90.utils;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * The sizing and hashing shared by the open addressing tables of {@link ImmutableIntKeyMap},
+ * {@link ImmutableLongKeyMap} and the key index of {@link MappedSnapshots}: tables are a power of two, kept at most
+ * half full, with collisions going to the next slots.
+ *
+ * @author <a href=
+ *         "https://github.com/elsantodel90/java-utils">https://github.com/elsantodel90/java-utils</a>
+ *
+ */
+final class HashTables {
+
+	/** The largest size whose table still fits the largest power of two an array can take. */
+	static final int MAX_SIZE = 1 << 29;
+
+	private HashTables() {
+	}
+
+	/**
+	 * The smallest power of two at least twice {@code size}, which must be positive.
+	 */
+	static int capacity(int size) {
+		checkArgument(size > 0 && size <= MAX_SIZE, "Too many entries: %s", size);
+		return Integer.highestOneBit((size << 1) - 1) << 1;
+	}
+
+	/**
+	 * Fibonacci hashing, spreading consecutive keys over the table.
+	 */
+	static int slot(int key, int mask) {
+		int hash = key * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	static int slot(long key, int mask) {
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+}
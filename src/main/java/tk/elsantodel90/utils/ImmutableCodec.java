@@ -0,0 +1,691 @@
+/*
+ * Copyright 2020 Agustín Santiago Gutiérrez
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package tk.elsantodel90.utils;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map.Entry;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Multiset;
+import com.google.common.primitives.ImmutableDoubleArray;
+import com.google.common.primitives.ImmutableIntArray;
+import com.google.common.primitives.ImmutableLongArray;
+
+/**
+ * A compact binary format for guava's Immutables, composed just like an {@link ImmutableCopier}. For example,
+ * {@code ImmutableCodec.ofList(ofMap(ofString(), ofSet(ofLong())))} reads and writes an
+ * {@code ImmutableList<ImmutableMap<String, ImmutableSet<Long>>>}.
+ * <p>
+ * Since the codec knows the whole shape of the data, nothing but the data itself is written: collections are a
+ * varint size followed by their elements (maps alternate keys and values, multisets alternate elements and counts,
+ * multimaps write each key once followed by its values), strings are the varint length of their UTF-8 encoding
+ * followed by it, and numbers are zig-zag varints (doubles are written as their 8 raw bytes). Reading builds the
+ * immutables directly, with presized builders. Null values are not supported.
+ * <p>
+ * Unpaired surrogates are encoded as the three bytes UTF-8 would use for any other char of their range, so every
+ * String reads back exactly as it was written, and well-formed strings are plain UTF-8.
+ * <p>
+ * Data must be read with a codec of the same shape it was written with, as there is no type information in it.
+ *
+ * @author <a href=
+ *         "https://github.com/elsantodel90/java-utils">https://github.com/elsantodel90/java-utils</a>
+ *
+ */
+public abstract class ImmutableCodec<W> {
+
+	// Public Interface
+
+	public abstract void write(W value, DataOutput out) throws IOException;
+
+	public abstract W read(DataInput in) throws IOException;
+
+	public byte[] toBytes(W value) {
+		BytesOutput bytes = new BytesOutput();
+		try {
+			write(value, bytes);
+		} catch (IOException e) {
+			// Writing to memory never fails
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	public W fromBytes(byte[] bytes) {
+		try {
+			return read(new DataInputStream(new ByteArrayInputStream(bytes)));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public static ImmutableCodec<String> ofString() {
+		return stringCodec;
+	}
+
+	public static ImmutableCodec<Integer> ofInteger() {
+		return integerCodec;
+	}
+
+	public static ImmutableCodec<Long> ofLong() {
+		return longCodec;
+	}
+
+	public static ImmutableCodec<Double> ofDouble() {
+		return doubleCodec;
+	}
+
+	public static ImmutableCodec<Boolean> ofBoolean() {
+		return booleanCodec;
+	}
+
+	public static ImmutableCodec<ImmutableIntArray> ofIntList() {
+		return intListCodec;
+	}
+
+	public static ImmutableCodec<ImmutableLongArray> ofLongList() {
+		return longListCodec;
+	}
+
+	public static ImmutableCodec<ImmutableDoubleArray> ofDoubleList() {
+		return doubleListCodec;
+	}
+
+	public static <W> ImmutableCodec<ImmutableList<W>> ofList(ImmutableCodec<W> elementCodec) {
+		return new CollectionCodec<>(checkNotNull(elementCodec), ImmutableList::builderWithExpectedSize);
+	}
+
+	public static <W> ImmutableCodec<ImmutableSet<W>> ofSet(ImmutableCodec<W> elementCodec) {
+		return new CollectionCodec<>(checkNotNull(elementCodec), ImmutableSet::builderWithExpectedSize);
+	}
+
+	public static <W> ImmutableCodec<ImmutableMultiset<W>> ofMultiset(ImmutableCodec<W> elementCodec) {
+		checkNotNull(elementCodec);
+		return new ImmutableCodec<ImmutableMultiset<W>>() {
+
+			@Override
+			public void write(ImmutableMultiset<W> multiset, DataOutput out) throws IOException {
+				writeSize(multiset.entrySet().size(), out);
+				for (Multiset.Entry<W> entry : multiset.entrySet()) {
+					elementCodec.write(entry.getElement(), out);
+					writeSize(entry.getCount(), out);
+				}
+			}
+
+			@Override
+			public ImmutableMultiset<W> read(DataInput in) throws IOException {
+				int size = readSize(in);
+				ImmutableMultiset.Builder<W> builder = ImmutableMultiset.builder();
+				for (int i = 0; i < size; i++) {
+					W element = elementCodec.read(in);
+					builder.addCopies(element, readSize(in));
+				}
+				return builder.build();
+			}
+		};
+	}
+
+	public static <K, V> ImmutableCodec<ImmutableMap<K, V>> ofMap(ImmutableCodec<K> keyCodec,
+			ImmutableCodec<V> valueCodec) {
+
+		checkNotNull(keyCodec);
+		checkNotNull(valueCodec);
+		return new ImmutableCodec<ImmutableMap<K, V>>() {
+
+			@Override
+			public void write(ImmutableMap<K, V> map, DataOutput out) throws IOException {
+				writeSize(map.size(), out);
+				for (Entry<K, V> entry : map.entrySet()) {
+					keyCodec.write(entry.getKey(), out);
+					valueCodec.write(entry.getValue(), out);
+				}
+			}
+
+			@Override
+			public ImmutableMap<K, V> read(DataInput in) throws IOException {
+				int size = readSize(in);
+				ImmutableMap.Builder<K, V> builder = ImmutableMap.builderWithExpectedSize(expectedSize(size));
+				for (int i = 0; i < size; i++) {
+					K key = keyCodec.read(in);
+					builder.put(key, valueCodec.read(in));
+				}
+				return builder.build();
+			}
+		};
+	}
+
+	public static <K, V> ImmutableCodec<ImmutableMultimap<K, V>> ofMultimap(ImmutableCodec<K> keyCodec,
+			ImmutableCodec<V> valueCodec) {
+
+		return new MultimapCodec<>(checkNotNull(keyCodec), checkNotNull(valueCodec), ImmutableListMultimap::builder);
+	}
+
+	public static <K, V> ImmutableCodec<ImmutableListMultimap<K, V>> ofListMultimap(ImmutableCodec<K> keyCodec,
+			ImmutableCodec<V> valueCodec) {
+
+		return new MultimapCodec<>(checkNotNull(keyCodec), checkNotNull(valueCodec), ImmutableListMultimap::builder);
+	}
+
+	public static <K, V> ImmutableCodec<ImmutableSetMultimap<K, V>> ofSetMultimap(ImmutableCodec<K> keyCodec,
+			ImmutableCodec<V> valueCodec) {
+
+		return new MultimapCodec<>(checkNotNull(keyCodec), checkNotNull(valueCodec), ImmutableSetMultimap::builder);
+	}
+
+	// Internal Implementation
+	private ImmutableCodec() {
+	}
+
+	/**
+	 * Sizes and counts are written as unsigned LEB128 varints, taking a single byte below 128.
+	 */
+	static void writeSize(int size, DataOutput out) throws IOException {
+		writeVarLong(size & 0xFFFFFFFFL, out);
+	}
+
+	static int readSize(DataInput in) throws IOException {
+		long size = readVarLong(in);
+		if (size < 0 || size > Integer.MAX_VALUE) {
+			throw new IOException("Corrupt size " + size);
+		}
+		return (int) size;
+	}
+
+	/**
+	 * Decoded sizes are not trusted for pre-sizing beyond this, so that a corrupt size fails at the end of the input
+	 * instead of allocating a huge buffer upfront. Larger containers just grow as their elements are read.
+	 */
+	private static final int MAX_PRESIZE = 1 << 16;
+
+	static int expectedSize(int size) {
+		return Math.min(size, MAX_PRESIZE);
+	}
+
+	/**
+	 * Reads {@code size} bytes into an array grown as they arrive, see {@link #expectedSize(int)}.
+	 */
+	static byte[] readBytes(int size, DataInput in) throws IOException {
+		byte[] bytes = new byte[expectedSize(size)];
+		int read = 0;
+		while (read < size) {
+			if (read == bytes.length) {
+				bytes = Arrays.copyOf(bytes, (int) Math.min(size, 2L * bytes.length));
+			}
+			in.readFully(bytes, read, bytes.length - read);
+			read = bytes.length;
+		}
+		return bytes;
+	}
+
+	static void writeVarLong(long value, DataOutput out) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	static long readVarLong(DataInput in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = in.readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	/**
+	 * Signed numbers are zig-zag encoded first, so that small negative numbers are short too.
+	 */
+	static void writeSignedVarLong(long value, DataOutput out) throws IOException {
+		writeVarLong((value << 1) ^ (value >> 63), out);
+	}
+
+	static long readSignedVarLong(DataInput in) throws IOException {
+		long value = readVarLong(in);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	static int readSignedVarInt(DataInput in) throws IOException {
+		long value = readSignedVarLong(in);
+		if (value != (int) value) {
+			throw new IOException("Corrupt int " + value);
+		}
+		return (int) value;
+	}
+
+	static void writeString(String value, DataOutput out) throws IOException {
+		int length = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				length += 1;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (isSurrogatePair(value, i)) {
+				length += 4;
+				i++;
+			} else {
+				length += 3;
+			}
+		}
+		byte[] bytes = new byte[length];
+		int pos = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				bytes[pos++] = (byte) c;
+			} else if (c < 0x800) {
+				bytes[pos++] = (byte) (0xC0 | c >>> 6);
+				bytes[pos++] = (byte) (0x80 | c & 0x3F);
+			} else if (isSurrogatePair(value, i)) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				bytes[pos++] = (byte) (0xF0 | codePoint >>> 18);
+				bytes[pos++] = (byte) (0x80 | codePoint >>> 12 & 0x3F);
+				bytes[pos++] = (byte) (0x80 | codePoint >>> 6 & 0x3F);
+				bytes[pos++] = (byte) (0x80 | codePoint & 0x3F);
+			} else {
+				bytes[pos++] = (byte) (0xE0 | c >>> 12);
+				bytes[pos++] = (byte) (0x80 | c >>> 6 & 0x3F);
+				bytes[pos++] = (byte) (0x80 | c & 0x3F);
+			}
+		}
+		writeSize(length, out);
+		out.write(bytes);
+	}
+
+	private static boolean isSurrogatePair(String value, int i) {
+		return Character.isHighSurrogate(value.charAt(i)) && i + 1 < value.length()
+				&& Character.isLowSurrogate(value.charAt(i + 1));
+	}
+
+	static String readString(DataInput in) throws IOException {
+		byte[] bytes = readBytes(readSize(in), in);
+		// Never more chars than bytes
+		char[] chars = new char[bytes.length];
+		int length = 0;
+		int pos = 0;
+		while (pos < bytes.length) {
+			int b = bytes[pos++] & 0xFF;
+			if (b < 0x80) {
+				chars[length++] = (char) b;
+			} else if ((b & 0xE0) == 0xC0) {
+				int c = (b & 0x1F) << 6 | continuation(bytes, pos++);
+				checkEncoding(c >= 0x80);
+				chars[length++] = (char) c;
+			} else if ((b & 0xF0) == 0xE0) {
+				int c = (b & 0x0F) << 12 | continuation(bytes, pos++) << 6 | continuation(bytes, pos++);
+				checkEncoding(c >= 0x800);
+				chars[length++] = (char) c;
+			} else if ((b & 0xF8) == 0xF0) {
+				int codePoint = (b & 0x07) << 18 | continuation(bytes, pos++) << 12 | continuation(bytes, pos++) << 6
+						| continuation(bytes, pos++);
+				checkEncoding(codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT
+						&& codePoint <= Character.MAX_CODE_POINT);
+				chars[length++] = Character.highSurrogate(codePoint);
+				chars[length++] = Character.lowSurrogate(codePoint);
+			} else {
+				throw new IOException("Malformed string");
+			}
+		}
+		return new String(chars, 0, length);
+	}
+
+	private static int continuation(byte[] bytes, int pos) throws IOException {
+		checkEncoding(pos < bytes.length && (bytes[pos] & 0xC0) == 0x80);
+		return bytes[pos] & 0x3F;
+	}
+
+	private static void checkEncoding(boolean valid) throws IOException {
+		if (!valid) {
+			throw new IOException("Malformed string");
+		}
+	}
+
+	/**
+	 * What {@link #toBytes(Object)} writes into: a growable array, without the locking of a
+	 * {@link ByteArrayOutputStream} on every varint byte.
+	 */
+	private static class BytesOutput implements DataOutput {
+
+		private byte[] bytes = new byte[64];
+		private int size;
+
+		private void ensureRoom(int count) {
+			if (bytes.length - size < count) {
+				bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, size + count));
+			}
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(bytes, size);
+		}
+
+		@Override
+		public void write(int b) {
+			ensureRoom(1);
+			bytes[size++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b) {
+			write(b, 0, b.length);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			ensureRoom(len);
+			System.arraycopy(b, off, bytes, size, len);
+			size += len;
+		}
+
+		@Override
+		public void writeBoolean(boolean v) {
+			write(v ? 1 : 0);
+		}
+
+		@Override
+		public void writeByte(int v) {
+			write(v);
+		}
+
+		@Override
+		public void writeShort(int v) {
+			write(v >>> 8);
+			write(v);
+		}
+
+		@Override
+		public void writeChar(int v) {
+			writeShort(v);
+		}
+
+		@Override
+		public void writeInt(int v) {
+			writeShort(v >>> 16);
+			writeShort(v);
+		}
+
+		@Override
+		public void writeLong(long v) {
+			writeInt((int) (v >>> 32));
+			writeInt((int) v);
+		}
+
+		@Override
+		public void writeFloat(float v) {
+			writeInt(Float.floatToIntBits(v));
+		}
+
+		@Override
+		public void writeDouble(double v) {
+			writeLong(Double.doubleToLongBits(v));
+		}
+
+		@Override
+		public void writeBytes(String s) {
+			for (int i = 0; i < s.length(); i++) {
+				write(s.charAt(i));
+			}
+		}
+
+		@Override
+		public void writeChars(String s) {
+			for (int i = 0; i < s.length(); i++) {
+				writeChar(s.charAt(i));
+			}
+		}
+
+		@Override
+		public void writeUTF(String s) throws IOException {
+			// Not used by any codec, so just borrow DataOutputStream's modified UTF-8
+			ByteArrayOutputStream utf = new ByteArrayOutputStream();
+			new DataOutputStream(utf).writeUTF(s);
+			write(utf.toByteArray());
+		}
+	}
+
+	private static class CollectionCodec<W, D extends ImmutableCollection<W>> extends ImmutableCodec<D> {
+
+		private final ImmutableCodec<W> elementCodec;
+		private final IntFunction<ImmutableCollection.Builder<W>> builderFactory;
+
+		private CollectionCodec(ImmutableCodec<W> elementCodec,
+				IntFunction<ImmutableCollection.Builder<W>> builderFactory) {
+
+			this.elementCodec = elementCodec;
+			this.builderFactory = builderFactory;
+		}
+
+		@Override
+		public void write(D collection, DataOutput out) throws IOException {
+			writeSize(collection.size(), out);
+			for (W element : collection) {
+				elementCodec.write(element, out);
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public D read(DataInput in) throws IOException {
+			int size = readSize(in);
+			ImmutableCollection.Builder<W> builder = builderFactory.apply(expectedSize(size));
+			for (int i = 0; i < size; i++) {
+				builder.add(elementCodec.read(in));
+			}
+			return (D) builder.build();
+		}
+	}
+
+	private static class MultimapCodec<K, V, M extends ImmutableMultimap<K, V>> extends ImmutableCodec<M> {
+
+		private final ImmutableCodec<K> keyCodec;
+		private final ImmutableCodec<V> valueCodec;
+		private final Supplier<ImmutableMultimap.Builder<K, V>> builderFactory;
+
+		private MultimapCodec(ImmutableCodec<K> keyCodec, ImmutableCodec<V> valueCodec,
+				Supplier<ImmutableMultimap.Builder<K, V>> builderFactory) {
+
+			this.keyCodec = keyCodec;
+			this.valueCodec = valueCodec;
+			this.builderFactory = builderFactory;
+		}
+
+		@Override
+		public void write(M multimap, DataOutput out) throws IOException {
+			writeSize(multimap.keySet().size(), out);
+			for (Entry<K, Collection<V>> group : multimap.asMap().entrySet()) {
+				keyCodec.write(group.getKey(), out);
+				writeSize(group.getValue().size(), out);
+				for (V value : group.getValue()) {
+					valueCodec.write(value, out);
+				}
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public M read(DataInput in) throws IOException {
+			int keys = readSize(in);
+			ImmutableMultimap.Builder<K, V> builder = builderFactory.get();
+			for (int i = 0; i < keys; i++) {
+				K key = keyCodec.read(in);
+				int size = readSize(in);
+				for (int j = 0; j < size; j++) {
+					builder.put(key, valueCodec.read(in));
+				}
+			}
+			return (M) builder.build();
+		}
+	}
+
+	private static final ImmutableCodec<String> stringCodec = new ImmutableCodec<String>() {
+
+		@Override
+		public void write(String value, DataOutput out) throws IOException {
+			writeString(value, out);
+		}
+
+		@Override
+		public String read(DataInput in) throws IOException {
+			return readString(in);
+		}
+	};
+
+	private static final ImmutableCodec<Integer> integerCodec = new ImmutableCodec<Integer>() {
+
+		@Override
+		public void write(Integer value, DataOutput out) throws IOException {
+			writeSignedVarLong(value, out);
+		}
+
+		@Override
+		public Integer read(DataInput in) throws IOException {
+			return readSignedVarInt(in);
+		}
+	};
+
+	private static final ImmutableCodec<Long> longCodec = new ImmutableCodec<Long>() {
+
+		@Override
+		public void write(Long value, DataOutput out) throws IOException {
+			writeSignedVarLong(value, out);
+		}
+
+		@Override
+		public Long read(DataInput in) throws IOException {
+			return readSignedVarLong(in);
+		}
+	};
+
+	private static final ImmutableCodec<Double> doubleCodec = new ImmutableCodec<Double>() {
+
+		@Override
+		public void write(Double value, DataOutput out) throws IOException {
+			out.writeDouble(value);
+		}
+
+		@Override
+		public Double read(DataInput in) throws IOException {
+			return in.readDouble();
+		}
+	};
+
+	private static final ImmutableCodec<Boolean> booleanCodec = new ImmutableCodec<Boolean>() {
+
+		@Override
+		public void write(Boolean value, DataOutput out) throws IOException {
+			out.writeBoolean(value);
+		}
+
+		@Override
+		public Boolean read(DataInput in) throws IOException {
+			return in.readBoolean();
+		}
+	};
+
+	private static final ImmutableCodec<ImmutableIntArray> intListCodec = new ImmutableCodec<ImmutableIntArray>() {
+
+		@Override
+		public void write(ImmutableIntArray array, DataOutput out) throws IOException {
+			writeSize(array.length(), out);
+			for (int i = 0; i < array.length(); i++) {
+				writeSignedVarLong(array.get(i), out);
+			}
+		}
+
+		@Override
+		public ImmutableIntArray read(DataInput in) throws IOException {
+			int size = readSize(in);
+			ImmutableIntArray.Builder builder = ImmutableIntArray.builder(expectedSize(size));
+			for (int i = 0; i < size; i++) {
+				builder.add(readSignedVarInt(in));
+			}
+			return builder.build();
+		}
+	};
+
+	private static final ImmutableCodec<ImmutableLongArray> longListCodec = new ImmutableCodec<ImmutableLongArray>() {
+
+		@Override
+		public void write(ImmutableLongArray array, DataOutput out) throws IOException {
+			writeSize(array.length(), out);
+			for (int i = 0; i < array.length(); i++) {
+				writeSignedVarLong(array.get(i), out);
+			}
+		}
+
+		@Override
+		public ImmutableLongArray read(DataInput in) throws IOException {
+			int size = readSize(in);
+			ImmutableLongArray.Builder builder = ImmutableLongArray.builder(expectedSize(size));
+			for (int i = 0; i < size; i++) {
+				builder.add(readSignedVarLong(in));
+			}
+			return builder.build();
+		}
+	};
+
+	private static final ImmutableCodec<ImmutableDoubleArray> doubleListCodec =
+			new ImmutableCodec<ImmutableDoubleArray>() {
+
+				@Override
+				public void write(ImmutableDoubleArray array, DataOutput out) throws IOException {
+					writeSize(array.length(), out);
+					for (int i = 0; i < array.length(); i++) {
+						out.writeDouble(array.get(i));
+					}
+				}
+
+				@Override
+				public ImmutableDoubleArray read(DataInput in) throws IOException {
+					int size = readSize(in);
+					ImmutableDoubleArray.Builder builder = ImmutableDoubleArray.builder(expectedSize(size));
+					for (int i = 0; i < size; i++) {
+						builder.add(in.readDouble());
+					}
+					return builder.build();
+				}
+			};
+}
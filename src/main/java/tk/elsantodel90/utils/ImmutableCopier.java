@@ -21,20 +21,46 @@
 
 package tk.elsantodel90.utils;
 
-import static com.google.common.collect.ImmutableList.toImmutableList;
-import static com.google.common.collect.ImmutableMultiset.toImmutableMultiset;
-import static com.google.common.collect.ImmutableSet.toImmutableSet;
-
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.stream.Collectors.toList;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.RandomAccess;
 import java.util.Set;
-import java.util.function.BiFunction;
-import java.util.function.Function;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collector;
 import java.util.stream.Stream;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
@@ -43,10 +69,23 @@ import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableMultiset;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedMultiset;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multiset;
+import com.google.common.collect.Ordering;
 import com.google.common.collect.SetMultimap;
+import com.google.common.collect.SortedMultiset;
+import com.google.common.primitives.ImmutableDoubleArray;
+import com.google.common.primitives.ImmutableIntArray;
+import com.google.common.primitives.ImmutableLongArray;
+import com.google.common.primitives.Ints;
 import com.google.common.reflect.TypeToken;
 
 /**
@@ -74,6 +113,232 @@ public abstract class ImmutableCopier<T, W> {
 
 	public abstract W copy(T value);
 
+	/**
+	 * Copies {@code value} reusing the parts of {@code previousSnapshot}, a result of an earlier copy made with this
+	 * copier, whose source content did not change since then. Lists (and the other collections) are matched by position,
+	 * and maps by key. When nothing changed, {@code previousSnapshot} itself is returned.
+	 * <p>
+	 * The source is still traversed completely, but unchanged sub-collections are neither rebuilt nor allocated again,
+	 * so repeatedly snapshotting a mostly unchanged structure produces almost no garbage. A {@code null}
+	 * {@code previousSnapshot} just performs a regular {@link #copy(Object)}. Levels in {@link #parallel(int)} mode are
+	 * copied sequentially when given a previous snapshot.
+	 */
+	public W copy(T value, W previousSnapshot) {
+		return copy(value);
+	}
+
+	/**
+	 * Returns a copier that, for inputs having at least {@code threshold} elements (or entries), copies the elements
+	 * concurrently on the common {@link ForkJoinPool}. Smaller inputs are still copied sequentially, and the order of
+	 * the resulting immutable is always the same as in a sequential copy.
+	 * <p>
+	 * This only affects the level it is applied to, so {@code ofList(ofSet(ofString()).parallel(1000))} copies the outer
+	 * list sequentially and each big inner set in parallel. Copiers with nothing to split (values, and collections of
+	 * values, which are handled directly by guava) return themselves.
+	 */
+	public ImmutableCopier<T, W> parallel(int threshold) {
+		return parallel(threshold, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Same as {@link #parallel(int)}, but running the parallel copies on the given {@code pool}.
+	 */
+	public ImmutableCopier<T, W> parallel(int threshold, ForkJoinPool pool) {
+		checkArgument(threshold > 0, "threshold must be positive, but was %s", threshold);
+		checkNotNull(pool);
+		return this;
+	}
+
+	/**
+	 * Returns a copier that canonicalizes its results, so that equal copies collapse to a single shared instance. For
+	 * example, {@code ofMap(ofString(), ofSet(ofString()).interned())} keeps only one instance of each distinct set
+	 * value.
+	 * <p>
+	 * The canonical instances are kept in a weak interner shared by every copy made with the returned copier, so they
+	 * are released once no copy refers to them. Note that equal results are interchangeable only up to
+	 * {@code equals}: for instance, two equal sets with different iteration orders collapse to the first one copied.
+	 */
+	public ImmutableCopier<T, W> interned() {
+		return interned(Interners.newWeakInterner());
+	}
+
+	/**
+	 * Same as {@link #interned()}, but canonicalizing through the given {@code interner}. Passing a fresh strong
+	 * interner for each batch of copies scopes the deduplication to that batch.
+	 */
+	public ImmutableCopier<T, W> interned(Interner<W> interner) {
+		return new InterningCopier<>(this, checkNotNull(interner));
+	}
+
+	/**
+	 * Copies every value of a batch, returning the copies in the same order. For a {@link #preservingSharing()} copier
+	 * the whole batch is a single scope, so a source instance reachable from several values is copied once and
+	 * shared among their copies, and {@link #interned()} copiers already share their interner among all copies.
+	 */
+	public ImmutableList<W> copyAll(Iterable<? extends T> values) {
+		CopyScope scope = newBatchScope();
+		ImmutableList.Builder<W> builder = values instanceof Collection
+				? ImmutableList.builderWithExpectedSize(((Collection<?>) values).size())
+				: ImmutableList.builder();
+		for (T value : values) {
+			builder.add(copyWithin(value, scope));
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Same as {@link #copyAll(Iterable)}, copying the values concurrently when {@code values} is a parallel stream.
+	 * The order of the copies is always the encounter order of the stream.
+	 */
+	public ImmutableList<W> copyAll(Stream<? extends T> values) {
+		CopyScope scope = newBatchScope();
+		if (scope != null && values.isParallel()) {
+			scope.makeConcurrent();
+		}
+		return values.map(value -> copyWithin(value, scope)).collect(ImmutableList.toImmutableList());
+	}
+
+	/**
+	 * Returns a copier that, within each call to {@link #copy(Object)}, copies every distinct source instance only
+	 * once. A sub-collection referenced from several places of the source (for example, the same mutable set being the
+	 * value of many map entries) is then copied the first time it is found, and that single copy is shared by every
+	 * place referring to it in the result, which stays as big as the number of distinct source objects.
+	 * <p>
+	 * Source instances are told apart by identity, and the bookkeeping lives only while the copy is running. This should
+	 * be applied to the outermost copier, since the scope is opened by the copier this is called on. Incremental copies
+	 * ({@link #copy(Object, Object)}) are made as usual.
+	 */
+	public ImmutableCopier<T, W> preservingSharing() {
+		return new SharingPreservingCopier<>(this);
+	}
+
+	/**
+	 * Returns a copier reporting every copy it makes to {@code listener}, tagged with {@code name}. Only the level it
+	 * is applied to is measured, so instrumenting each level of interest (with different names) tells how the copying
+	 * time splits among them. Copiers which are not instrumented are not affected in any way.
+	 */
+	public ImmutableCopier<T, W> instrumented(String name, CopyListener listener) {
+		return instrumented(name, listener, false);
+	}
+
+	/**
+	 * Same as {@link #instrumented(String, CopyListener)}, also estimating the bytes allocated by each copy when
+	 * {@code estimateBytes} is true. That walks every copy once more, outside of the reported time.
+	 */
+	public ImmutableCopier<T, W> instrumented(String name, CopyListener listener, boolean estimateBytes) {
+		return new InstrumentedCopier<>(this, checkNotNull(name), checkNotNull(listener), estimateBytes);
+	}
+
+	/**
+	 * Estimates the heap retained by {@code copy}, a result of this copier, in bytes. The structure is walked once,
+	 * using the shape known to the copier and the approximate overhead of each guava immutable on a 64 bits JVM with
+	 * compressed references. Instances reachable several times are counted once.
+	 * <p>
+	 * Values are sized by type when they are strings, boxed primitives or collections, and as a bare object otherwise;
+	 * {@link #sizedBy} plugs a precise sizer for any level. Lazy copies are not forced: elements not yet copied are
+	 * not counted.
+	 */
+	public long estimateRetainedBytes(W copy) {
+		return estimate(copy, Collections.newSetFromMap(new IdentityHashMap<>()));
+	}
+
+	/**
+	 * Returns an equivalent copier, whose results are sized by {@code sizer} in
+	 * {@link #estimateRetainedBytes(Object)}. The sizer receives non-null copies, and must account for everything
+	 * they retain.
+	 */
+	public ImmutableCopier<T, W> sizedBy(ToLongFunction<? super W> sizer) {
+		return new SizedCopier<>(this, checkNotNull(sizer));
+	}
+
+	/**
+	 * Receives a notification after each copy made by an {@link ImmutableCopier#instrumented instrumented} copier.
+	 * Listeners are called from the copying thread, which in {@link ImmutableCopier#parallel(int) parallel} copies may
+	 * be several threads at once.
+	 */
+	public interface CopyListener {
+		/**
+		 * @param name the name given to the instrumented copier
+		 * @param size the number of elements (or entries) of the copy, or 1 if it is not a collection
+		 * @param fastPath whether the copy was made in a single step, as for values and containers of values, instead
+		 *        of going through a sub-copier for each element
+		 * @param shared whether the copy is the source itself (or the previous snapshot), so nothing was allocated
+		 * @param bytes the estimated bytes allocated by the copy, or -1 if the copier does not estimate them. This is
+		 *        the retained size of the copy, so parts of it reused from the source are counted too
+		 * @param nanos wall time taken by the copy, including all of its nested levels
+		 */
+		void copied(String name, int size, boolean fastPath, boolean shared, long bytes, long nanos);
+	}
+
+	/**
+	 * A {@link CopyListener} accumulating totals with low contention, suitable for sharing among threads.
+	 */
+	public static final class CopyStatistics implements CopyListener {
+
+		private final LongAdder copies = new LongAdder();
+		private final LongAdder fastPathCopies = new LongAdder();
+		private final LongAdder sharedCopies = new LongAdder();
+		private final LongAdder elements = new LongAdder();
+		private final LongAdder bytes = new LongAdder();
+		private final LongAdder nanos = new LongAdder();
+
+		@Override
+		public void copied(String name, int size, boolean fastPath, boolean shared, long bytes, long nanos) {
+			copies.increment();
+			if (fastPath) {
+				fastPathCopies.increment();
+			}
+			if (shared) {
+				sharedCopies.increment();
+			}
+			elements.add(size);
+			if (bytes > 0) {
+				this.bytes.add(bytes);
+			}
+			this.nanos.add(nanos);
+		}
+
+		public long getCopies() {
+			return copies.sum();
+		}
+
+		/**
+		 * Copies made in a single step, the rest having gone through a sub-copier for each element.
+		 */
+		public long getFastPathCopies() {
+			return fastPathCopies.sum();
+		}
+
+		/**
+		 * Copies that took a fast path returning an existing instance instead of building a new one.
+		 */
+		public long getSharedCopies() {
+			return sharedCopies.sum();
+		}
+
+		public long getElements() {
+			return elements.sum();
+		}
+
+		/**
+		 * Estimated bytes allocated, only counted by copiers instrumented to estimate them.
+		 */
+		public long getBytes() {
+			return bytes.sum();
+		}
+
+		public long getNanos() {
+			return nanos.sum();
+		}
+
+		@Override
+		public String toString() {
+			return "CopyStatistics[copies=" + getCopies() + ", fastPath=" + getFastPathCopies() + ", shared="
+					+ getSharedCopies() + ", elements=" + getElements() + ", bytes=" + getBytes() + ", nanos="
+					+ getNanos() + "]";
+		}
+	}
+
 	@SuppressWarnings("unchecked")
 	public static <T> ImmutableCopier<T, T> ofValue() {
 		return (ImmutableCopier<T, T>) identityCopier;
@@ -115,18 +380,82 @@ public abstract class ImmutableCopier<T, W> {
 		return ofValue();
 	}
 
+	// These copy collections of boxed numbers into guava's unboxed immutable arrays, which take a fraction of the memory
+	// of the corresponding ImmutableList. Null elements are rejected with a NullPointerException.
+
+	public static ImmutableCopier<Collection<Integer>, ImmutableIntArray> ofIntList() {
+		return intListCopier;
+	}
+
+	public static ImmutableCopier<Collection<Long>, ImmutableLongArray> ofLongList() {
+		return longListCopier;
+	}
+
+	public static ImmutableCopier<Collection<Double>, ImmutableDoubleArray> ofDoubleList() {
+		return doubleListCopier;
+	}
+
+	// These copy maps with boxed keys into open-addressing maps keeping keys unboxed, with no entry objects at all.
+	// Null values are rejected with a NullPointerException.
+
+	public static <V, V2> ImmutableCopier<Map<Integer, ? extends V>, ImmutableIntKeyMap<V2>> ofIntKeyMap(
+			ImmutableCopier<V, V2> valueSubcopier) {
+
+		return new ImmutableCopier<Map<Integer, ? extends V>, ImmutableIntKeyMap<V2>>() {
+
+			@Override
+			public ImmutableIntKeyMap<V2> copy(Map<Integer, ? extends V> map) {
+				return ImmutableIntKeyMap.copyOf(map, valueSubcopier::copy);
+			}
+
+			@Override
+			long estimate(ImmutableIntKeyMap<V2> copy, Set<Object> visited) {
+				if (copy == null || !visited.add(copy)) {
+					return 0;
+				}
+				long[] bytes = {RetainedSize.shallow(copy)};
+				copy.forEach((key, value) -> bytes[0] += valueSubcopier.estimate(value, visited));
+				return bytes[0];
+			}
+		};
+	}
+
+	public static <V, V2> ImmutableCopier<Map<Long, ? extends V>, ImmutableLongKeyMap<V2>> ofLongKeyMap(
+			ImmutableCopier<V, V2> valueSubcopier) {
+
+		return new ImmutableCopier<Map<Long, ? extends V>, ImmutableLongKeyMap<V2>>() {
+
+			@Override
+			public ImmutableLongKeyMap<V2> copy(Map<Long, ? extends V> map) {
+				return ImmutableLongKeyMap.copyOf(map, valueSubcopier::copy);
+			}
+
+			@Override
+			long estimate(ImmutableLongKeyMap<V2> copy, Set<Object> visited) {
+				if (copy == null || !visited.add(copy)) {
+					return 0;
+				}
+				long[] bytes = {RetainedSize.shallow(copy)};
+				copy.forEach((key, value) -> bytes[0] += valueSubcopier.estimate(value, visited));
+				return bytes[0];
+			}
+		};
+	}
+
 	@SuppressWarnings({"unchecked"})
 	public static <T, W> ImmutableCopier<List<? extends T>, ImmutableList<W>> ofList(ImmutableCopier<T, W> subcopier) {
 		return subcopier == identityCopier
 				? (ImmutableCopier<List<? extends T>, ImmutableList<W>>) simpleListCopier
-				: new DelegatingCollectionCopier<>(subcopier, toImmutableList());
+				: new DelegatingCollectionCopier<>(subcopier, ImmutableList::builderWithExpectedSize, ImmutableList.class,
+						(ImmutableCopier<List<? extends T>, ImmutableList<W>>) simpleListCopier);
 	}
 
 	@SuppressWarnings({"unchecked"})
 	public static <T, W> ImmutableCopier<Set<? extends T>, ImmutableSet<W>> ofSet(ImmutableCopier<T, W> subcopier) {
 		return subcopier == identityCopier
 				? (ImmutableCopier<Set<? extends T>, ImmutableSet<W>>) simpleSetCopier
-				: new DelegatingCollectionCopier<>(subcopier, toImmutableSet());
+				: new DelegatingCollectionCopier<>(subcopier, ImmutableSet::builderWithExpectedSize, ImmutableSet.class,
+						(ImmutableCopier<Set<? extends T>, ImmutableSet<W>>) simpleSetCopier);
 	}
 
 	@SuppressWarnings({"unchecked"})
@@ -135,7 +464,9 @@ public abstract class ImmutableCopier<T, W> {
 
 		return subcopier == identityCopier
 				? (ImmutableCopier<Multiset<? extends T>, ImmutableMultiset<W>>) simpleMultisetCopier
-				: new DelegatingCollectionCopier<>(subcopier, toImmutableMultiset());
+				: new DelegatingCollectionCopier<>(subcopier, expectedSize -> ImmutableMultiset.builder(),
+						ImmutableMultiset.class,
+						(ImmutableCopier<Multiset<? extends T>, ImmutableMultiset<W>>) simpleMultisetCopier);
 	}
 
 	@SuppressWarnings({"unchecked"})
@@ -144,7 +475,10 @@ public abstract class ImmutableCopier<T, W> {
 
 		return keySubcopier == identityCopier && valueSubcopier == identityCopier
 				? (ImmutableCopier<Map<? extends K, ? extends V>, ImmutableMap<K2, V2>>) simpleMapCopier
-				: new DelegatingMapCopier<>(keySubcopier, valueSubcopier);
+				: new DelegatingMapCopier<>(keySubcopier, valueSubcopier, ImmutableMap::builderWithExpectedSize,
+						ImmutableMap.class,
+						(ImmutableCopier<Map<? extends K, ? extends V>, ImmutableMap<K2, V2>>) simpleMapCopier,
+						Parallelism.SEQUENTIAL);
 	}
 
 	@SuppressWarnings({"unchecked"})
@@ -153,7 +487,9 @@ public abstract class ImmutableCopier<T, W> {
 
 		return keySubcopier == identityCopier && valueSubcopier == identityCopier
 				? (ImmutableCopier<Multimap<? extends K, ? extends V>, ImmutableMultimap<K2, V2>>) simpleMultimapCopier
-				: new DelegatingMultimapCopier<>(keySubcopier, valueSubcopier);
+				: new DelegatingMultimapCopier<>(keySubcopier, valueSubcopier,
+						(ImmutableCopier<Multimap<? extends K, ? extends V>, ImmutableMultimap<K2, V2>>) simpleMultimapCopier,
+						Parallelism.SEQUENTIAL);
 	}
 
 	@SuppressWarnings({"unchecked"})
@@ -162,7 +498,9 @@ public abstract class ImmutableCopier<T, W> {
 
 		return keySubcopier == identityCopier && valueSubcopier == identityCopier
 				? (ImmutableCopier<ListMultimap<? extends K, ? extends V>, ImmutableListMultimap<K2, V2>>) simpleListMultimapCopier
-				: new DelegatingListMultimapCopier<>(keySubcopier, valueSubcopier);
+				: new DelegatingListMultimapCopier<>(keySubcopier, valueSubcopier,
+						(ImmutableCopier<ListMultimap<? extends K, ? extends V>, ImmutableListMultimap<K2, V2>>) simpleListMultimapCopier,
+						Parallelism.SEQUENTIAL);
 	}
 
 	@SuppressWarnings({"unchecked"})
@@ -171,191 +509,2069 @@ public abstract class ImmutableCopier<T, W> {
 
 		return keySubcopier == identityCopier && valueSubcopier == identityCopier
 				? (ImmutableCopier<SetMultimap<? extends K, ? extends V>, ImmutableSetMultimap<K2, V2>>) simpleSetMultimapCopier
-				: new DelegatingSetMultimapCopier<>(keySubcopier, valueSubcopier);
+				: new DelegatingSetMultimapCopier<>(keySubcopier, valueSubcopier,
+						(ImmutableCopier<SetMultimap<? extends K, ? extends V>, ImmutableSetMultimap<K2, V2>>) simpleSetMultimapCopier,
+						Parallelism.SEQUENTIAL);
 	}
 
-	// Internal Implementation
-	private ImmutableCopier() {
+	// Sorted copiers. When the source is already sorted by the same comparator and the elements (or keys) are values,
+	// guava's copyOfSorted is used so that nothing is sorted again. Otherwise the guava builders sort the copied
+	// elements: sets and maps sort an array, which takes a linear number of comparisons for input that is already in
+	// order, but the sorted multiset builder inserts into a tree, which always takes O(n log n).
+
+	public static <T, W extends Comparable<? super W>> ImmutableCopier<Set<? extends T>, ImmutableSortedSet<W>> ofSortedSet(
+			ImmutableCopier<T, W> subcopier) {
+
+		return ofSortedSet(Ordering.natural(), subcopier);
 	}
 
-	private static final ImmutableCopier<?, ?> identityCopier = new ImmutableCopier<Object, Object>() {
+	@SuppressWarnings({"unchecked"})
+	public static <T, W> ImmutableCopier<Set<? extends T>, ImmutableSortedSet<W>> ofSortedSet(
+			Comparator<? super W> comparator, ImmutableCopier<T, W> subcopier) {
 
-		@Override
-		public Object copy(Object value) {
-			return value;
-		}
-	};
+		ImmutableCopier<Set<? extends T>, ImmutableSortedSet<W>> simpleCopier =
+				(ImmutableCopier<Set<? extends T>, ImmutableSortedSet<W>>) (ImmutableCopier<?, ?>) simpleSortedSetCopier(
+						comparator);
+		return subcopier == identityCopier
+				? simpleCopier
+				: new DelegatingCollectionCopier<>(subcopier,
+						expectedSize -> new ImmutableSortedSet.Builder<W>(comparator),
+						ImmutableSortedSet.class, simpleCopier);
+	}
 
-	private static class DelegatingCollectionCopier<A, B, C extends Collection<? extends A>, D extends ImmutableCollection<B>>
-			extends ImmutableCopier<C, D> {
+	public static <T, W extends Comparable<? super W>> ImmutableCopier<Multiset<? extends T>, ImmutableSortedMultiset<W>> ofSortedMultiset(
+			ImmutableCopier<T, W> subcopier) {
 
-		private final ImmutableCopier<A, B> subcopier;
-		private final Collector<B, ?, D> collector;
+		return ofSortedMultiset(Ordering.natural(), subcopier);
+	}
 
-		private DelegatingCollectionCopier(ImmutableCopier<A, B> subcopier, Collector<B, ?, D> collector) {
-			this.subcopier = subcopier;
-			this.collector = collector;
-		}
+	@SuppressWarnings({"unchecked"})
+	public static <T, W> ImmutableCopier<Multiset<? extends T>, ImmutableSortedMultiset<W>> ofSortedMultiset(
+			Comparator<? super W> comparator, ImmutableCopier<T, W> subcopier) {
 
-		@Override
-		public D copy(C collection) {
-			return collection.stream()
-					.map(subcopier::copy)
-					.collect(collector);
-		}
+		ImmutableCopier<Multiset<? extends T>, ImmutableSortedMultiset<W>> simpleCopier =
+				(ImmutableCopier<Multiset<? extends T>, ImmutableSortedMultiset<W>>) (ImmutableCopier<?, ?>) simpleSortedMultisetCopier(
+						comparator);
+		return subcopier == identityCopier
+				? simpleCopier
+				: new DelegatingCollectionCopier<>(subcopier,
+						expectedSize -> new ImmutableSortedMultiset.Builder<W>(comparator),
+						ImmutableSortedMultiset.class, simpleCopier);
+	}
+
+	public static <K, V, K2 extends Comparable<? super K2>, V2> ImmutableCopier<Map<? extends K, ? extends V>, ImmutableSortedMap<K2, V2>> ofSortedMap(
+			ImmutableCopier<K, K2> keySubcopier, ImmutableCopier<V, V2> valueSubcopier) {
 
+		return ofSortedMap(Ordering.natural(), keySubcopier, valueSubcopier);
 	}
 
-	private static abstract class AbstractDelegatingMaplikeCopier<K, V, K2, V2, C, C2>
-			extends ImmutableCopier<C, C2> {
+	@SuppressWarnings({"unchecked"})
+	public static <K, V, K2, V2> ImmutableCopier<Map<? extends K, ? extends V>, ImmutableSortedMap<K2, V2>> ofSortedMap(
+			Comparator<? super K2> comparator, ImmutableCopier<K, K2> keySubcopier,
+			ImmutableCopier<V, V2> valueSubcopier) {
 
-		private final ImmutableCopier<K, K2> keySubcopier;
-		private final ImmutableCopier<V, V2> valueSubcopier;
-		private final BiFunction<Function<? super Entry<? extends K, ? extends V>, K2>, Function<? super Entry<? extends K, ? extends V>, V2>, Collector<? super Entry<? extends K, ? extends V>, ?, ? extends C2>> collectorFunction;
+		ImmutableCopier<Map<? extends K, ? extends V>, ImmutableSortedMap<K2, V2>> simpleCopier =
+				(ImmutableCopier<Map<? extends K, ? extends V>, ImmutableSortedMap<K2, V2>>) (ImmutableCopier<?, ?>) simpleSortedMapCopier(
+						comparator);
+		return keySubcopier == identityCopier && valueSubcopier == identityCopier
+				? simpleCopier
+				: new DelegatingMapCopier<>(keySubcopier, valueSubcopier,
+						expectedSize -> new ImmutableSortedMap.Builder<K2, V2>(comparator), ImmutableSortedMap.class,
+						simpleCopier, Parallelism.SEQUENTIAL);
+	}
 
-		private AbstractDelegatingMaplikeCopier(ImmutableCopier<K, K2> keySubcopier,
-				ImmutableCopier<V, V2> valueSubcopier,
-				BiFunction<Function<? super Entry<? extends K, ? extends V>, K2>, Function<? super Entry<? extends K, ? extends V>, V2>, Collector<? super Entry<? extends K, ? extends V>, ?, ? extends C2>> collectorFunction) {
+	// Iterator and Stream sources. Elements (or entries) are copied one at a time into the guava builder as they are
+	// pulled from the source, so no intermediate mutable collection is ever materialized. Streams are consumed
+	// sequentially through their iterator and are not closed, that is left to the caller.
 
-			this.keySubcopier = keySubcopier;
-			this.valueSubcopier = valueSubcopier;
-			this.collectorFunction = collectorFunction;
-		}
+	public static <T, W> ImmutableCopier<Iterator<? extends T>, ImmutableList<W>> ofListFromIterator(
+			ImmutableCopier<T, W> subcopier) {
 
-		@Override
-		public C2 copy(C map) {
-			return entries(map)
-					.collect(collectorFunction.apply(entry -> keySubcopier.copy(entry.getKey()),
-							entry -> valueSubcopier.copy(entry.getValue())));
-		}
+		return new IteratorSourceCopier<>(subcopier, ImmutableList::builder);
+	}
 
-		abstract Stream<? extends Entry<? extends K, ? extends V>> entries(C map);
+	public static <T, W> ImmutableCopier<Iterator<? extends T>, ImmutableSet<W>> ofSetFromIterator(
+			ImmutableCopier<T, W> subcopier) {
 
+		return new IteratorSourceCopier<>(subcopier, ImmutableSet::builder);
 	}
 
-	private static class DelegatingMapCopier<K, V, K2, V2, C extends Map<? extends K, ? extends V>>
-			extends AbstractDelegatingMaplikeCopier<K, V, K2, V2, C, ImmutableMap<K2, V2>> {
+	public static <T, W> ImmutableCopier<Iterator<? extends T>, ImmutableMultiset<W>> ofMultisetFromIterator(
+			ImmutableCopier<T, W> subcopier) {
+
+		return new IteratorSourceCopier<>(subcopier, ImmutableMultiset::builder);
+	}
 
-		private DelegatingMapCopier(ImmutableCopier<K, K2> keySubcopier, ImmutableCopier<V, V2> valueSubcopier) {
-			super(keySubcopier, valueSubcopier, ImmutableMap::toImmutableMap);
-		}
+	/**
+	 * Duplicate keys are rejected with an IllegalArgumentException, just like in {@link ImmutableMap.Builder#build()}.
+	 */
+	public static <K, V, K2, V2> ImmutableCopier<Iterator<? extends Entry<? extends K, ? extends V>>, ImmutableMap<K2, V2>> ofMapFromIterator(
+			ImmutableCopier<K, K2> keySubcopier, ImmutableCopier<V, V2> valueSubcopier) {
 
-		@Override
-		Stream<? extends Entry<? extends K, ? extends V>> entries(C map) {
-			return map.entrySet().stream();
-		}
+		return new ImmutableCopier<Iterator<? extends Entry<? extends K, ? extends V>>, ImmutableMap<K2, V2>>() {
 
+			@Override
+			public ImmutableMap<K2, V2> copy(Iterator<? extends Entry<? extends K, ? extends V>> entries) {
+				ImmutableMap.Builder<K2, V2> builder = ImmutableMap.builder();
+				while (entries.hasNext()) {
+					Entry<? extends K, ? extends V> entry = entries.next();
+					builder.put(keySubcopier.copy(entry.getKey()), valueSubcopier.copy(entry.getValue()));
+				}
+				return builder.build();
+			}
+		};
 	}
 
-	private static abstract class AbstractDelegatingMultimapCopier<K, V, K2, V2, C extends Multimap<? extends K, ? extends V>, C2 extends ImmutableMultimap<K2, V2>>
-			extends AbstractDelegatingMaplikeCopier<K, V, K2, V2, C, C2> {
+	public static <T, W> ImmutableCopier<Stream<? extends T>, ImmutableList<W>> ofListFromStream(
+			ImmutableCopier<T, W> subcopier) {
 
-		private AbstractDelegatingMultimapCopier(ImmutableCopier<K, K2> keySubcopier,
-				ImmutableCopier<V, V2> valueSubcopier,
-				BiFunction<Function<? super Entry<? extends K, ? extends V>, K2>, Function<? super Entry<? extends K, ? extends V>, V2>, Collector<? super Entry<? extends K, ? extends V>, ?, ? extends C2>> collectorFunction) {
-			super(keySubcopier, valueSubcopier, collectorFunction);
-		}
+		return new StreamSourceCopier<>(ofListFromIterator(subcopier));
+	}
 
-		@Override
-		Stream<? extends Entry<? extends K, ? extends V>> entries(C multimap) {
-			return multimap.entries().stream();
-		}
+	public static <T, W> ImmutableCopier<Stream<? extends T>, ImmutableSet<W>> ofSetFromStream(
+			ImmutableCopier<T, W> subcopier) {
 
+		return new StreamSourceCopier<>(ofSetFromIterator(subcopier));
 	}
 
-	private static class DelegatingMultimapCopier<K, V, K2, V2, C extends Multimap<? extends K, ? extends V>>
-			extends AbstractDelegatingMultimapCopier<K, V, K2, V2, C, ImmutableMultimap<K2, V2>> {
+	public static <T, W> ImmutableCopier<Stream<? extends T>, ImmutableMultiset<W>> ofMultisetFromStream(
+			ImmutableCopier<T, W> subcopier) {
 
-		private DelegatingMultimapCopier(ImmutableCopier<K, K2> keySubcopier, ImmutableCopier<V, V2> valueSubcopier) {
-			super(keySubcopier, valueSubcopier, ImmutableListMultimap::toImmutableListMultimap);
-		}
+		return new StreamSourceCopier<>(ofMultisetFromIterator(subcopier));
+	}
+
+	public static <K, V, K2, V2> ImmutableCopier<Stream<? extends Entry<? extends K, ? extends V>>, ImmutableMap<K2, V2>> ofMapFromStream(
+			ImmutableCopier<K, K2> keySubcopier, ImmutableCopier<V, V2> valueSubcopier) {
 
+		return new StreamSourceCopier<>(ofMapFromIterator(keySubcopier, valueSubcopier));
 	}
 
-	private static class DelegatingListMultimapCopier<K, V, K2, V2, C extends ListMultimap<? extends K, ? extends V>>
-			extends AbstractDelegatingMultimapCopier<K, V, K2, V2, C, ImmutableListMultimap<K2, V2>> {
+	// Concurrent sources. These copy concurrent collections and maps that keep being modified during the copy, relying
+	// on their weakly consistent iteration: every element present during the whole copy is copied, while those
+	// added, removed or replaced meanwhile may or may not be. Sources of at least 1024 elements are split among the
+	// threads of the common ForkJoinPool, which can be changed through parallel(). Once each copy is done,
+	// changeListener receives an estimate of how many elements changed during it.
 
-		private DelegatingListMultimapCopier(ImmutableCopier<K, K2> keySubcopier,
-				ImmutableCopier<V, V2> valueSubcopier) {
-			super(keySubcopier, valueSubcopier, ImmutableListMultimap::toImmutableListMultimap);
-		}
+	/**
+	 * Keys seen more than once (which the weakly consistent iteration of some maps allows) keep the last value seen.
+	 * The estimate counts keys seen more than once, plus the absolute difference between the size of the map when the
+	 * copy starts and the size of the copy. Replaced values and changes cancelling each other out are missed, so it is
+	 * a lower bound of the number of changes.
+	 */
+	public static <K, V, K2, V2> ImmutableCopier<ConcurrentMap<? extends K, ? extends V>, ImmutableMap<K2, V2>> ofConcurrentMap(
+			ImmutableCopier<K, K2> keySubcopier, ImmutableCopier<V, V2> valueSubcopier, IntConsumer changeListener) {
 
+		return new ConcurrentMapCopier<>(checkNotNull(keySubcopier), checkNotNull(valueSubcopier),
+				checkNotNull(changeListener), Parallelism.CONCURRENT_SOURCES);
 	}
 
-	private static class DelegatingSetMultimapCopier<K, V, K2, V2, C extends SetMultimap<? extends K, ? extends V>>
-			extends AbstractDelegatingMultimapCopier<K, V, K2, V2, C, ImmutableSetMultimap<K2, V2>> {
-
-		private DelegatingSetMultimapCopier(ImmutableCopier<K, K2> keySubcopier,
-				ImmutableCopier<V, V2> valueSubcopier) {
-			super(keySubcopier, valueSubcopier, ImmutableSetMultimap::toImmutableSetMultimap);
-		}
+	/**
+	 * The estimate is just the absolute difference between the size of the source when the copy starts and the size of
+	 * the copy. Each element added or removed changes it by at most one, so it is a lower bound of the number of
+	 * changes, which misses replacements and changes cancelling each other out. The size of the source is taken only
+	 * once, as some concurrent collections such as {@code ConcurrentLinkedQueue} traverse themselves to count.
+	 */
+	public static <T, W> ImmutableCopier<Collection<? extends T>, ImmutableList<W>> ofConcurrentCollection(
+			ImmutableCopier<T, W> subcopier, IntConsumer changeListener) {
 
+		return new ConcurrentCollectionCopier<>(checkNotNull(subcopier), checkNotNull(changeListener),
+				Parallelism.CONCURRENT_SOURCES);
 	}
 
-	private static final ImmutableCopier<? extends List<?>, ? extends ImmutableList<?>> simpleListCopier =
-			new ImmutableCopier<List<?>, ImmutableList<?>>() {
+	// Lazy copiers. The top level is copied eagerly, and so is every element (or value) that could still change: only
+	// guava immutable collections, maps or multimaps whose sub-copier goes no deeper than values (such as
+	// ofList(ofString())) are immutable all the way down, so only those are copied the first time they are accessed,
+	// and that copy is then memoized in a thread-safe manner. The returned views are unmodifiable, and they hold the
+	// same contents as a regular deep copy taken at the time of the copy call.
+	// Mutable or more deeply nested elements get the full eager copy plus a supplier each, which costs more than
+	// ofList or ofMap, so these only pay off for sources made of immutable containers of values that are seldom read.
+
+	public static <T, W> ImmutableCopier<List<? extends T>, List<W>> ofLazyList(ImmutableCopier<T, W> subcopier) {
+		return new ImmutableCopier<List<? extends T>, List<W>>() {
+
+			@Override
+			public List<W> copy(List<? extends T> list) {
+				ImmutableList.Builder<LazyCopy<W>> builder = ImmutableList.builderWithExpectedSize(list.size());
+				for (T element : list) {
+					builder.add(lazyCopy(subcopier, element));
+				}
+				return new LazyList<>(builder.build());
+			}
 
-				@Override
-				public ImmutableList<?> copy(List<?> value) {
-					return ImmutableList.copyOf(value);
+			@Override
+			long estimate(List<W> copy, Set<Object> visited) {
+				if (copy == null || visited.contains(copy)) {
+					return 0;
 				}
-			};
+				long bytes = RetainedSize.ofLazyContainer(copy.size(), copy, visited);
+				for (LazyCopy<W> element : ((LazyList<W>) copy).elements) {
+					bytes += element.isCopied() ? subcopier.estimate(element.get(), visited) : 0;
+				}
+				return bytes;
+			}
+		};
+	}
 
-	private static final ImmutableCopier<? extends Set<?>, ? extends ImmutableSet<?>> simpleSetCopier =
-			new ImmutableCopier<Set<Object>, ImmutableSet<Object>>() {
+	/**
+	 * Keys are copied eagerly, as they are needed to lay out the map, while values are copied lazily.
+	 */
+	public static <K, V, K2, V2> ImmutableCopier<Map<? extends K, ? extends V>, Map<K2, V2>> ofLazyMap(
+			ImmutableCopier<K, K2> keySubcopier, ImmutableCopier<V, V2> valueSubcopier) {
 
-				@Override
-				public ImmutableSet<Object> copy(Set<Object> value) {
-					return ImmutableSet.copyOf(value);
-				}
-			};
+		return new ImmutableCopier<Map<? extends K, ? extends V>, Map<K2, V2>>() {
 
-	private static final ImmutableCopier<? extends Multiset<?>, ? extends ImmutableMultiset<?>> simpleMultisetCopier =
-			new ImmutableCopier<Multiset<Object>, ImmutableMultiset<Object>>() {
+			@Override
+			public Map<K2, V2> copy(Map<? extends K, ? extends V> map) {
+				ImmutableMap.Builder<K2, LazyCopy<V2>> builder = ImmutableMap.builderWithExpectedSize(map.size());
+				for (Entry<? extends K, ? extends V> entry : map.entrySet()) {
+					builder.put(keySubcopier.copy(entry.getKey()), lazyCopy(valueSubcopier, entry.getValue()));
+				}
+				return new LazyMap<>(builder.build());
+			}
 
-				@Override
-				public ImmutableMultiset<Object> copy(Multiset<Object> value) {
-					return ImmutableMultiset.copyOf(value);
+			@Override
+			long estimate(Map<K2, V2> copy, Set<Object> visited) {
+				if (copy == null || visited.contains(copy)) {
+					return 0;
 				}
-			};
+				long bytes = RetainedSize.ofLazyContainer(copy.size(), copy, visited) + RetainedSize.shallowMap(copy.size());
+				for (Entry<K2, LazyCopy<V2>> entry : ((LazyMap<K2, V2>) copy).copies.entrySet()) {
+					bytes += keySubcopier.estimate(entry.getKey(), visited);
+					if (entry.getValue().isCopied()) {
+						bytes += valueSubcopier.estimate(entry.getValue().get(), visited);
+					}
+				}
+				return bytes;
+			}
+		};
+	}
 
-	private static final ImmutableCopier<? extends Map<?, ?>, ? extends ImmutableMap<?, ?>> simpleMapCopier =
-			new ImmutableCopier<Map<Object, Object>, ImmutableMap<Object, Object>>() {
+	/**
+	 * Defers the copy of {@code value} to the first access if it is immutable all the way down, and copies it right
+	 * away otherwise, since it could be mutated meanwhile.
+	 */
+	private static <T, W> LazyCopy<W> lazyCopy(ImmutableCopier<T, W> subcopier, T value) {
+		if (subcopier.isShallow() && (value instanceof ImmutableCollection || value instanceof ImmutableMap
+				|| value instanceof ImmutableMultimap)) {
+			return new LazyCopy<>(() -> subcopier.copy(value), null);
+		}
+		return new LazyCopy<>(null, subcopier.copy(value));
+	}
 
-				@Override
-				public ImmutableMap<Object, Object> copy(Map<Object, Object> map) {
-					return ImmutableMap.copyOf(map);
-				}
+	/**
+	 * A memoized copy, which also tells whether it was made already, so that estimates do not force it.
+	 */
+	private static final class LazyCopy<W> implements Supplier<W> {
 
-			};
+		/** Null once the copy is made. */
+		private volatile Supplier<W> pending;
+		private W copy;
 
-	private static final ImmutableCopier<? extends Multimap<?, ?>, ? extends ImmutableMultimap<?, ?>> simpleMultimapCopier =
-			new ImmutableCopier<Multimap<Object, Object>, ImmutableMultimap<Object, Object>>() {
+		private LazyCopy(Supplier<W> pending, W copy) {
+			this.pending = pending;
+			this.copy = copy;
+		}
 
-				@Override
-				public ImmutableMultimap<Object, Object> copy(Multimap<Object, Object> multimap) {
-					return ImmutableMultimap.copyOf(multimap);
+		@Override
+		public W get() {
+			if (pending != null) {
+				synchronized (this) {
+					if (pending != null) {
+						copy = pending.get();
+						pending = null;
+					}
 				}
+			}
+			return copy;
+		}
 
-			};
+		boolean isCopied() {
+			return pending == null;
+		}
+	}
 
-	private static final ImmutableCopier<? extends ListMultimap<?, ?>, ? extends ImmutableListMultimap<?, ?>> simpleListMultimapCopier =
-			new ImmutableCopier<ListMultimap<Object, Object>, ImmutableListMultimap<Object, Object>>() {
+	private static final class LazyList<W> extends AbstractList<W> implements RandomAccess {
 
-				@Override
-				public ImmutableListMultimap<Object, Object> copy(ListMultimap<Object, Object> multimap) {
-					return ImmutableListMultimap.copyOf(multimap);
-				}
+		private final ImmutableList<LazyCopy<W>> elements;
 
-			};
+		private LazyList(ImmutableList<LazyCopy<W>> elements) {
+			this.elements = elements;
+		}
 
-	private static final ImmutableCopier<? extends SetMultimap<?, ?>, ? extends ImmutableSetMultimap<?, ?>> simpleSetMultimapCopier =
-			new ImmutableCopier<SetMultimap<Object, Object>, ImmutableSetMultimap<Object, Object>>() {
+		@Override
+		public W get(int index) {
+			return elements.get(index).get();
+		}
 
-				@Override
-				public ImmutableSetMultimap<Object, Object> copy(SetMultimap<Object, Object> multimap) {
-					return ImmutableSetMultimap.copyOf(multimap);
-				}
+		@Override
+		public int size() {
+			return elements.size();
+		}
+	}
 
-			};
+	private static final class LazyMap<K, V> extends AbstractMap<K, V> {
+
+		private final ImmutableMap<K, LazyCopy<V>> copies;
+		private final Map<K, V> view;
+
+		private LazyMap(ImmutableMap<K, LazyCopy<V>> copies) {
+			this.copies = copies;
+			this.view = Maps.transformValues(copies, LazyCopy::get);
+		}
+
+		@Override
+		public V get(Object key) {
+			return view.get(key);
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return copies.containsKey(key);
+		}
+
+		@Override
+		public Set<Entry<K, V>> entrySet() {
+			return view.entrySet();
+		}
+
+		@Override
+		public int size() {
+			return copies.size();
+		}
+	}
+
+	/**
+	 * Starts building a copier for plain java beans of type {@code beanClass}, which must have a no-arguments
+	 * constructor (of any visibility). The copy is a new instance with every instance field (including inherited ones)
+	 * set to the corresponding value of the source, copied through the sub-copier given for that field, or as is
+	 * otherwise. For example,
+	 * {@code ofBean(Order.class).field("lines", new TypeToken<List<Line>>() {}, ofList(ofValue(Line.class))).build()}.
+	 * <p>
+	 * Fields are read and written through method handles resolved once per class, so reflection cost is only paid
+	 * when building the copier. Null field values are kept null without calling their sub-copier. Sources must be
+	 * instances of exactly {@code beanClass}, since the fields of subclasses would be lost otherwise.
+	 */
+	public static <T> BeanCopierBuilder<T> ofBean(Class<T> beanClass) {
+		return new BeanCopierBuilder<>(beanLayouts.get(checkNotNull(beanClass)));
+	}
+
+	public static final class BeanCopierBuilder<T> {
+
+		private final BeanLayout layout;
+		private final Map<Field, ImmutableCopier<?, ?>> subcopiers = new HashMap<>();
+
+		private BeanCopierBuilder(BeanLayout layout) {
+			this.layout = layout;
+		}
+
+		/**
+		 * Copies the field called {@code name}, whose declared type must be {@code type}, through {@code subcopier}.
+		 * If a subclass hides a field of the same name, this is the subclass field, and the hidden one is still copied
+		 * as is.
+		 */
+		public <F> BeanCopierBuilder<T> field(String name, TypeToken<F> type,
+				ImmutableCopier<? super F, ? extends F> subcopier) {
+
+			Field field = layout.visibleFields.get(name);
+			checkArgument(field != null, "%s has no field %s", layout.beanClass.getName(), name);
+			TypeToken<?> fieldType = TypeToken.of(field.getGenericType());
+			checkArgument(fieldType.equals(type), "Field %s of %s is a %s, not a %s", name, layout.beanClass.getName(),
+					fieldType, type);
+			subcopiers.put(field, checkNotNull(subcopier));
+			return this;
+		}
+
+		/**
+		 * Same as {@link #field(String, TypeToken, ImmutableCopier)}, for fields of a non-generic type.
+		 */
+		public <F> BeanCopierBuilder<T> field(String name, Class<F> type,
+				ImmutableCopier<? super F, ? extends F> subcopier) {
+
+			return field(name, TypeToken.of(type), subcopier);
+		}
+
+		@SuppressWarnings("unchecked")
+		public ImmutableCopier<T, T> build() {
+			checkArgument(layout.constructor != null, "%s has no constructor without arguments",
+					layout.beanClass.getName());
+			int size = layout.fields.size();
+			MethodHandle[] getters = new MethodHandle[size];
+			MethodHandle[] setters = new MethodHandle[size];
+			ImmutableList.Builder<ImmutableCopier<Object, Object>> fieldCopiers = ImmutableList.builderWithExpectedSize(size);
+			boolean[] primitive = new boolean[size];
+			int i = 0;
+			for (Entry<Field, MethodHandle[]> field : layout.fields.entrySet()) {
+				getters[i] = field.getValue()[0];
+				setters[i] = field.getValue()[1];
+				fieldCopiers.add((ImmutableCopier<Object, Object>) subcopiers.getOrDefault(field.getKey(), identityCopier));
+				primitive[i] = field.getKey().getType().isPrimitive();
+				i++;
+			}
+			return new BeanCopier<>(layout.beanClass, layout.constructor, getters, setters, fieldCopiers.build(),
+					primitive);
+		}
+	}
+
+	// Internal Implementation
+	private ImmutableCopier() {
+	}
+
+	/**
+	 * Adds up the bytes retained by {@code copy} not already in {@code visited}.
+	 */
+	long estimate(W copy, Set<Object> visited) {
+		return RetainedSize.of(copy, visited);
+	}
+
+	/**
+	 * The scope shared by a whole {@link #copyAll} batch, or null when copies are independent.
+	 */
+	CopyScope newBatchScope() {
+		return null;
+	}
+
+	/**
+	 * Whether this copier only goes down to values, which are copied as is. A guava immutable container given to such a
+	 * copier is thus immutable all the way down, so its copy can be deferred safely.
+	 */
+	boolean isShallow() {
+		return false;
+	}
+
+	private static <B> long estimateElements(ImmutableCollection<B> copy, ImmutableCopier<?, B> subcopier,
+			Set<Object> visited) {
+
+		if (copy == null || !visited.add(copy)) {
+			return 0;
+		}
+		long bytes = RetainedSize.shallow(copy);
+		@SuppressWarnings("unchecked")
+		Collection<B> elements = copy instanceof Multiset ? ((Multiset<B>) copy).elementSet() : copy;
+		for (B element : elements) {
+			bytes += subcopier.estimate(element, visited);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Copies {@code value} reusing the copies already made within {@code scope}, and registering there the new ones. A
+	 * {@code null} scope just performs a regular {@link #copy(Object)}.
+	 */
+	W copyWithin(T value, CopyScope scope) {
+		return scope == null ? copy(value) : scope.copy(value, this);
+	}
+
+	/**
+	 * Whether both collections have the very same elements (by reference) in the same iteration order.
+	 */
+	private static boolean sameElements(Collection<?> collection, Collection<?> copies) {
+		if (collection.size() != copies.size()) {
+			return false;
+		}
+		Iterator<?> copiesIterator = copies.iterator();
+		for (Object element : collection) {
+			if (copiesIterator.next() != element) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Whether both collections have the very same keys and values (by reference) in the same iteration order.
+	 */
+	private static boolean sameEntries(Collection<? extends Entry<?, ?>> entries,
+			Collection<? extends Entry<?, ?>> copies) {
+
+		if (entries.size() != copies.size()) {
+			return false;
+		}
+		Iterator<? extends Entry<?, ?>> copiesIterator = copies.iterator();
+		for (Entry<?, ?> entry : entries) {
+			Entry<?, ?> entryCopy = copiesIterator.next();
+			if (entryCopy.getKey() != entry.getKey() || entryCopy.getValue() != entry.getValue()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Source to copy mappings of a single {@link #preservingSharing()} copy, keyed by copier and then by source
+	 * identity, since the same source reached through two different copiers has a different copy for each. The maps
+	 * are only made concurrent once a parallel level is reached, so sequential copies pay no synchronization at all.
+	 */
+	private static final class CopyScope {
+
+		private volatile Map<ImmutableCopier<?, ?>, Map<Object, Object>> copies = new IdentityHashMap<>();
+		private volatile boolean concurrent = false;
+
+		/**
+		 * Must be called before handing this scope to other threads.
+		 */
+		synchronized void makeConcurrent() {
+			if (!concurrent) {
+				// Copiers do not override equals, so they are compared by identity
+				Map<ImmutableCopier<?, ?>, Map<Object, Object>> concurrentCopies = new ConcurrentHashMap<>();
+				for (Entry<ImmutableCopier<?, ?>, Map<Object, Object>> entry : copies.entrySet()) {
+					Map<Object, Object> copierCopies = newCopierCopies(true);
+					for (Entry<Object, Object> copy : entry.getValue().entrySet()) {
+						copierCopies.put(new IdentityKey(copy.getKey()), copy.getValue());
+					}
+					concurrentCopies.put(entry.getKey(), copierCopies);
+				}
+				copies = concurrentCopies;
+				concurrent = true;
+			}
+		}
+
+		/**
+		 * Concurrent maps are keyed by {@link IdentityKey}, and the others directly by source.
+		 */
+		private static Map<Object, Object> newCopierCopies(boolean concurrent) {
+			return concurrent ? new ConcurrentHashMap<>() : new IdentityHashMap<>();
+		}
+
+		private static Object keyFor(Map<Object, Object> copierCopies, Object source) {
+			return copierCopies instanceof IdentityHashMap ? source : new IdentityKey(source);
+		}
+
+		<T, W> W copy(T value, ImmutableCopier<T, W> copier) {
+			W cached = get(copier, value);
+			return cached != null ? cached : put(copier, value, copier.copy(value));
+		}
+
+		@SuppressWarnings("unchecked")
+		<W> W get(ImmutableCopier<?, W> copier, Object source) {
+			if (source == null) {
+				return null;
+			}
+			Map<Object, Object> copierCopies = copies.get(copier);
+			return copierCopies == null ? null : (W) copierCopies.get(keyFor(copierCopies, source));
+		}
+
+		/**
+		 * Returns the copy to use for {@code source}, which is the given one unless another thread registered its own
+		 * copy first.
+		 */
+		@SuppressWarnings("unchecked")
+		<W> W put(ImmutableCopier<?, W> copier, Object source, W copy) {
+			if (source == null || copy == null) {
+				return copy;
+			}
+			boolean concurrent = this.concurrent;
+			Map<Object, Object> copierCopies = copies.computeIfAbsent(copier, c -> newCopierCopies(concurrent));
+			Object previous = copierCopies.putIfAbsent(keyFor(copierCopies, source), copy);
+			return previous == null ? copy : (W) previous;
+		}
+
+		/**
+		 * Compares sources by identity in concurrent maps, which have no identity variant.
+		 */
+		private static final class IdentityKey {
+
+			private final Object source;
+
+			private IdentityKey(Object source) {
+				this.source = source;
+			}
+
+			@Override
+			public int hashCode() {
+				return System.identityHashCode(source);
+			}
+
+			@Override
+			public boolean equals(Object obj) {
+				return obj instanceof IdentityKey && ((IdentityKey) obj).source == source;
+			}
+		}
+	}
+
+	/**
+	 * Approximate retained sizes, in bytes, for a 64 bits JVM with compressed references, where objects take a 12 bytes
+	 * header plus their fields, rounded up to 8 bytes.
+	 */
+	private static final class RetainedSize {
+
+		private static final long OBJECT = 16;
+		private static final long ARRAY = 16;
+		private static final long REFERENCE = 4;
+		/** Guava hash tables are kept at most about half full. */
+		private static final long HASH_SLOTS_PER_ELEMENT = 2;
+		/** An entry of an immutable map: key, value and next entry references. */
+		private static final long MAP_ENTRY = 24;
+		/** A memoizing supplier with its captured source element. */
+		private static final long LAZY_ELEMENT = 32;
+
+		private RetainedSize() {
+		}
+
+		/**
+		 * Sizes any object, walking into collections, maps and multimaps.
+		 */
+		static long of(Object value, Set<Object> visited) {
+			if (value == null || !visited.add(value)) {
+				return 0;
+			}
+			long bytes = shallow(value);
+			if (value instanceof Multimap) {
+				Multimap<?, ?> multimap = (Multimap<?, ?>) value;
+				for (Object key : multimap.keySet()) {
+					bytes += of(key, visited);
+				}
+				for (Object element : multimap.values()) {
+					bytes += of(element, visited);
+				}
+			} else if (value instanceof Map) {
+				for (Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+					bytes += of(entry.getKey(), visited) + of(entry.getValue(), visited);
+				}
+			} else if (value instanceof Multiset) {
+				for (Object element : ((Multiset<?>) value).elementSet()) {
+					bytes += of(element, visited);
+				}
+			} else if (value instanceof Collection) {
+				for (Object element : (Collection<?>) value) {
+					bytes += of(element, visited);
+				}
+			}
+			return bytes;
+		}
+
+		/**
+		 * The bytes taken by {@code value} itself, excluding any element it refers to.
+		 */
+		static long shallow(Object value) {
+			if (value instanceof String) {
+				// The String plus its char array (Java 9 compact strings halve the latter for latin-1 text)
+				return OBJECT + 8 + align(ARRAY + 2L * ((String) value).length());
+			} else if (value instanceof Long || value instanceof Double) {
+				return 24;
+			} else if (value instanceof Number || value instanceof Character || value instanceof Boolean) {
+				return OBJECT;
+			} else if (value instanceof ImmutableIntArray) {
+				return OBJECT + 8 + align(ARRAY + 4L * ((ImmutableIntArray) value).length());
+			} else if (value instanceof ImmutableLongArray) {
+				return OBJECT + 8 + align(ARRAY + 8L * ((ImmutableLongArray) value).length());
+			} else if (value instanceof ImmutableDoubleArray) {
+				return OBJECT + 8 + align(ARRAY + 8L * ((ImmutableDoubleArray) value).length());
+			} else if (value instanceof ImmutableIntKeyMap) {
+				int capacity = ((ImmutableIntKeyMap<?>) value).capacity();
+				return capacity == 0 ? 0 : OBJECT + 16 + align(ARRAY + 4L * capacity) + align(ARRAY + REFERENCE * capacity);
+			} else if (value instanceof ImmutableLongKeyMap) {
+				int capacity = ((ImmutableLongKeyMap<?>) value).capacity();
+				return capacity == 0 ? 0 : OBJECT + 16 + align(ARRAY + 8L * capacity) + align(ARRAY + REFERENCE * capacity);
+			} else if (value instanceof ImmutableCollection && ((ImmutableCollection<?>) value).isEmpty()
+					|| value instanceof ImmutableMap && ((ImmutableMap<?, ?>) value).isEmpty()
+					|| value instanceof ImmutableMultimap && ((ImmutableMultimap<?, ?>) value).isEmpty()) {
+				// Guava shares a single empty instance of each type
+				return 0;
+			} else if (value instanceof ImmutableSortedSet) {
+				return OBJECT + 8 + shallowList(((ImmutableSortedSet<?>) value).size());
+			} else if (value instanceof ImmutableSortedMap) {
+				int size = ((ImmutableSortedMap<?, ?>) value).size();
+				return OBJECT + 8 + (OBJECT + 8 + shallowList(size)) + shallowList(size);
+			} else if (value instanceof ImmutableList) {
+				return shallowList(((ImmutableList<?>) value).size());
+			} else if (value instanceof ImmutableSet) {
+				return shallowSet(((ImmutableSet<?>) value).size());
+			} else if (value instanceof Multiset) {
+				// Backed by an element to count map
+				return OBJECT + 8 + shallowMap(((Multiset<?>) value).elementSet().size())
+						+ OBJECT * ((Multiset<?>) value).elementSet().size();
+			} else if (value instanceof ImmutableSetMultimap) {
+				ImmutableSetMultimap<?, ?> multimap = (ImmutableSetMultimap<?, ?>) value;
+				long bytes = OBJECT + 8 + shallowMap(multimap.keySet().size());
+				for (Collection<?> values : multimap.asMap().values()) {
+					bytes += shallowSet(values.size());
+				}
+				return bytes;
+			} else if (value instanceof Multimap) {
+				Multimap<?, ?> multimap = (Multimap<?, ?>) value;
+				return OBJECT + 8 + shallowMap(multimap.keySet().size()) + multimap.keySet().size() * OBJECT
+						+ multimap.size() * REFERENCE + multimap.keySet().size() * ARRAY;
+			} else if (value instanceof Map) {
+				return shallowMap(((Map<?, ?>) value).size());
+			} else if (value instanceof Collection) {
+				return shallowList(((Collection<?>) value).size());
+			}
+			return OBJECT;
+		}
+
+		static long shallowList(int size) {
+			return OBJECT + align(ARRAY + REFERENCE * size);
+		}
+
+		static long shallowSet(int size) {
+			return OBJECT + 8 + shallowList(size) + align(ARRAY + REFERENCE * HASH_SLOTS_PER_ELEMENT * size);
+		}
+
+		static long shallowMap(int size) {
+			return OBJECT + 8 + align(ARRAY + REFERENCE * size) + MAP_ENTRY * size
+					+ align(ARRAY + REFERENCE * HASH_SLOTS_PER_ELEMENT * size);
+		}
+
+		/**
+		 * A lazy view over {@code size} memoized elements, the elements themselves not included.
+		 */
+		static long ofLazyContainer(int size, Object view, Set<Object> visited) {
+			return visited.add(view) ? OBJECT + shallowList(size) + LAZY_ELEMENT * size : 0;
+		}
+
+		private static long align(long bytes) {
+			return (bytes + 7) & ~7L;
+		}
+	}
+
+	private static final class Parallelism {
+
+		private static final Parallelism SEQUENTIAL = new Parallelism(Integer.MAX_VALUE, null);
+		private static final Parallelism CONCURRENT_SOURCES = new Parallelism(1024, ForkJoinPool.commonPool());
+
+		private final int threshold;
+		private final ForkJoinPool pool;
+
+		private Parallelism(int threshold, ForkJoinPool pool) {
+			this.threshold = threshold;
+			this.pool = pool;
+		}
+
+		private boolean appliesTo(int size) {
+			return size >= threshold;
+		}
+
+		/**
+		 * Parallel streams run on the pool of the calling worker thread (or on the common pool), so the task is
+		 * submitted to our pool unless we are already running inside it.
+		 */
+		private <R> R run(Supplier<R> task) {
+			if (ForkJoinTask.getPool() == pool) {
+				return task.get();
+			}
+			return pool.submit(task::get).join();
+		}
+	}
+
+	private static final ImmutableCopier<?, ?> identityCopier = new ImmutableCopier<Object, Object>() {
+
+		@Override
+		public Object copy(Object value) {
+			return value;
+		}
+
+		@Override
+		Object copyWithin(Object value, CopyScope scope) {
+			return value;
+		}
+
+		@Override
+		boolean isShallow() {
+			return true;
+		}
+	};
+
+	private static class InterningCopier<T, W> extends ImmutableCopier<T, W> {
+
+		private final ImmutableCopier<T, W> delegate;
+		private final Interner<W> interner;
+
+		private InterningCopier(ImmutableCopier<T, W> delegate, Interner<W> interner) {
+			this.delegate = delegate;
+			this.interner = interner;
+		}
+
+		@Override
+		public W copy(T value) {
+			return intern(delegate.copy(value));
+		}
+
+		@Override
+		public W copy(T value, W previousSnapshot) {
+			return intern(delegate.copy(value, previousSnapshot));
+		}
+
+		@Override
+		W copyWithin(T value, CopyScope scope) {
+			return intern(delegate.copyWithin(value, scope));
+		}
+
+		@Override
+		long estimate(W copy, Set<Object> visited) {
+			return delegate.estimate(copy, visited);
+		}
+
+		@Override
+		CopyScope newBatchScope() {
+			return delegate.newBatchScope();
+		}
+
+		@Override
+		boolean isShallow() {
+			return delegate.isShallow();
+		}
+
+		private W intern(W copy) {
+			return copy == null ? null : interner.intern(copy);
+		}
+
+		@Override
+		public ImmutableCopier<T, W> parallel(int threshold, ForkJoinPool pool) {
+			return new InterningCopier<>(delegate.parallel(threshold, pool), interner);
+		}
+
+	}
+
+	/**
+	 * Elements are copied into an unsized builder as the iterator yields them, since its size is unknown and no
+	 * immutable input can be reused.
+	 */
+	private static class IteratorSourceCopier<A, B, D extends ImmutableCollection<B>>
+			extends ImmutableCopier<Iterator<? extends A>, D> {
+
+		private final ImmutableCopier<A, B> subcopier;
+		private final Supplier<ImmutableCollection.Builder<B>> builderFactory;
+
+		private IteratorSourceCopier(ImmutableCopier<A, B> subcopier,
+				Supplier<ImmutableCollection.Builder<B>> builderFactory) {
+
+			this.subcopier = subcopier;
+			this.builderFactory = builderFactory;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public D copy(Iterator<? extends A> iterator) {
+			ImmutableCollection.Builder<B> builder = builderFactory.get();
+			while (iterator.hasNext()) {
+				builder.add(subcopier.copy(iterator.next()));
+			}
+			return (D) builder.build();
+		}
+
+		@Override
+		long estimate(D copy, Set<Object> visited) {
+			return estimateElements(copy, subcopier, visited);
+		}
+	}
+
+	private static class StreamSourceCopier<E, W> extends ImmutableCopier<Stream<? extends E>, W> {
+
+		private final ImmutableCopier<Iterator<? extends E>, W> iteratorCopier;
+
+		private StreamSourceCopier(ImmutableCopier<Iterator<? extends E>, W> iteratorCopier) {
+			this.iteratorCopier = iteratorCopier;
+		}
+
+		@Override
+		public W copy(Stream<? extends E> stream) {
+			return iteratorCopier.copy(stream.iterator());
+		}
+
+		@Override
+		long estimate(W copy, Set<Object> visited) {
+			return iteratorCopier.estimate(copy, visited);
+		}
+	}
+
+	private static final ClassValue<BeanLayout> beanLayouts = new ClassValue<BeanLayout>() {
+
+		@Override
+		protected BeanLayout computeValue(Class<?> type) {
+			return new BeanLayout(type);
+		}
+	};
+
+	/**
+	 * The handles needed to copy instances of a class, typed as Object so that they can be invoked exactly.
+	 */
+	private static final class BeanLayout {
+
+		private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+		private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+		private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+		private final Class<?> beanClass;
+		/** Null if there is no constructor without arguments. */
+		private final MethodHandle constructor;
+		/** Getter and setter of each field, including those hidden by a subclass field of the same name. */
+		private final ImmutableMap<Field, MethodHandle[]> fields;
+		/** The field each name refers to from the bean class, the one declared by the most derived class. */
+		private final ImmutableMap<String, Field> visibleFields;
+
+		private BeanLayout(Class<?> beanClass) {
+			this.beanClass = beanClass;
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			MethodHandle constructor = null;
+			try {
+				Constructor<?> noArgs = beanClass.getDeclaredConstructor();
+				noArgs.setAccessible(true);
+				constructor = lookup.unreflectConstructor(noArgs).asType(CONSTRUCTOR_TYPE);
+			} catch (NoSuchMethodException e) {
+				// Reported when building a copier
+			} catch (IllegalAccessException e) {
+				throw new IllegalArgumentException(e);
+			}
+			this.constructor = constructor;
+			ImmutableMap.Builder<Field, MethodHandle[]> fields = ImmutableMap.builder();
+			Map<String, Field> visibleFields = new HashMap<>();
+			for (Class<?> c = beanClass; c != null && c != Object.class; c = c.getSuperclass()) {
+				for (Field field : c.getDeclaredFields()) {
+					if (Modifier.isStatic(field.getModifiers())) {
+						continue;
+					}
+					field.setAccessible(true);
+					visibleFields.putIfAbsent(field.getName(), field);
+					try {
+						fields.put(field, new MethodHandle[] {
+								lookup.unreflectGetter(field).asType(GETTER_TYPE),
+								lookup.unreflectSetter(field).asType(SETTER_TYPE)});
+					} catch (IllegalAccessException e) {
+						throw new IllegalArgumentException("Cannot access field " + field, e);
+					}
+				}
+			}
+			this.fields = fields.build();
+			this.visibleFields = ImmutableMap.copyOf(visibleFields);
+		}
+	}
+
+	private static final class BeanCopier<T> extends ImmutableCopier<T, T> {
+
+		private final Class<?> beanClass;
+		private final MethodHandle constructor;
+		private final MethodHandle[] getters;
+		private final MethodHandle[] setters;
+		private final ImmutableList<ImmutableCopier<Object, Object>> fieldCopiers;
+		/** Primitive fields are stored inline, so their boxed values are not counted by estimates. */
+		private final boolean[] primitive;
+
+		private BeanCopier(Class<?> beanClass, MethodHandle constructor, MethodHandle[] getters,
+				MethodHandle[] setters, ImmutableList<ImmutableCopier<Object, Object>> fieldCopiers, boolean[] primitive) {
+
+			this.beanClass = beanClass;
+			this.constructor = constructor;
+			this.getters = getters;
+			this.setters = setters;
+			this.fieldCopiers = fieldCopiers;
+			this.primitive = primitive;
+		}
+
+		@Override
+		public T copy(T bean) {
+			return copyFields(bean, null);
+		}
+
+		@Override
+		T copyWithin(T bean, CopyScope scope) {
+			if (scope == null) {
+				return copyFields(bean, null);
+			}
+			T cached = scope.get(this, bean);
+			return cached != null ? cached : scope.put(this, bean, copyFields(bean, scope));
+		}
+
+		@SuppressWarnings("unchecked")
+		private T copyFields(T bean, CopyScope scope) {
+			if (bean == null) {
+				return null;
+			}
+			checkArgument(bean.getClass() == beanClass, "Cannot copy a %s as a %s", bean.getClass().getName(),
+					beanClass.getName());
+			try {
+				Object copy = (Object) constructor.invokeExact();
+				for (int i = 0; i < getters.length; i++) {
+					Object value = (Object) getters[i].invokeExact((Object) bean);
+					if (value != null) {
+						value = fieldCopiers.get(i).copyWithin(value, scope);
+					}
+					setters[i].invokeExact(copy, value);
+				}
+				return (T) copy;
+			} catch (Throwable t) {
+				Throwables.throwIfUnchecked(t);
+				throw new IllegalStateException(t);
+			}
+		}
+
+		@Override
+		long estimate(T copy, Set<Object> visited) {
+			if (copy == null || !visited.add(copy)) {
+				return 0;
+			}
+			// Header plus a slot for each field, which is exact for references and longs, and an upper bound otherwise
+			long bytes = RetainedSize.OBJECT + 8L * getters.length;
+			try {
+				for (int i = 0; i < getters.length; i++) {
+					if (primitive[i]) {
+						continue;
+					}
+					bytes += fieldCopiers.get(i).estimate((Object) getters[i].invokeExact((Object) copy), visited);
+				}
+			} catch (Throwable t) {
+				Throwables.throwIfUnchecked(t);
+				throw new IllegalStateException(t);
+			}
+			return bytes;
+		}
+
+	}
+
+	private static class ConcurrentCollectionCopier<T, W> extends ImmutableCopier<Collection<? extends T>, ImmutableList<W>> {
+
+		private final ImmutableCopier<T, W> subcopier;
+		private final IntConsumer changeListener;
+		private final Parallelism parallelism;
+
+		private ConcurrentCollectionCopier(ImmutableCopier<T, W> subcopier, IntConsumer changeListener,
+				Parallelism parallelism) {
+
+			this.subcopier = subcopier;
+			this.changeListener = changeListener;
+			this.parallelism = parallelism;
+		}
+
+		@Override
+		public ImmutableList<W> copy(Collection<? extends T> collection) {
+			int size = collection.size();
+			ImmutableList<W> copy = parallelism.appliesTo(size)
+					? parallelism.run(() -> collection.parallelStream()
+							.map(subcopier::copy)
+							.collect(ImmutableList.toImmutableList()))
+					: collection.stream().map(subcopier::copy).collect(ImmutableList.toImmutableList());
+			changeListener.accept(Math.abs(size - copy.size()));
+			return copy;
+		}
+
+		@Override
+		public ImmutableCopier<Collection<? extends T>, ImmutableList<W>> parallel(int threshold, ForkJoinPool pool) {
+			super.parallel(threshold, pool);
+			return new ConcurrentCollectionCopier<>(subcopier, changeListener, new Parallelism(threshold, pool));
+		}
+	}
+
+	private static class ConcurrentMapCopier<K, V, K2, V2>
+			extends ImmutableCopier<ConcurrentMap<? extends K, ? extends V>, ImmutableMap<K2, V2>> {
+
+		private final ImmutableCopier<K, K2> keySubcopier;
+		private final ImmutableCopier<V, V2> valueSubcopier;
+		private final IntConsumer changeListener;
+		private final Parallelism parallelism;
+
+		private ConcurrentMapCopier(ImmutableCopier<K, K2> keySubcopier, ImmutableCopier<V, V2> valueSubcopier,
+				IntConsumer changeListener, Parallelism parallelism) {
+
+			this.keySubcopier = keySubcopier;
+			this.valueSubcopier = valueSubcopier;
+			this.changeListener = changeListener;
+			this.parallelism = parallelism;
+		}
+
+		@Override
+		public ImmutableMap<K2, V2> copy(ConcurrentMap<? extends K, ? extends V> map) {
+			int size = map.size();
+			LongAdder changes = new LongAdder();
+			// toImmutableMap collects into a LinkedHashMap before building, which is what resolves keys seen twice
+			Collector<Entry<? extends K, ? extends V>, ?, ImmutableMap<K2, V2>> collector = ImmutableMap.toImmutableMap(
+					entry -> keySubcopier.copy(entry.getKey()),
+					entry -> valueSubcopier.copy(entry.getValue()),
+					(previous, last) -> {
+						// A key seen more than once was removed and added back during the copy
+						changes.increment();
+						return last;
+					});
+			ImmutableMap<K2, V2> copy = parallelism.appliesTo(size)
+					? parallelism.run(() -> map.entrySet().parallelStream().collect(collector))
+					: map.entrySet().stream().collect(collector);
+			changes.add(Math.abs(size - copy.size()));
+			changeListener.accept(Ints.saturatedCast(changes.sum()));
+			return copy;
+		}
+
+		@Override
+		public ImmutableCopier<ConcurrentMap<? extends K, ? extends V>, ImmutableMap<K2, V2>> parallel(int threshold,
+				ForkJoinPool pool) {
+
+			super.parallel(threshold, pool);
+			return new ConcurrentMapCopier<>(keySubcopier, valueSubcopier, changeListener,
+					new Parallelism(threshold, pool));
+		}
+	}
+
+	private static class SharingPreservingCopier<T, W> extends ImmutableCopier<T, W> {
+
+		private final ImmutableCopier<T, W> delegate;
+
+		private SharingPreservingCopier(ImmutableCopier<T, W> delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public W copy(T value) {
+			return delegate.copyWithin(value, new CopyScope());
+		}
+
+		@Override
+		public W copy(T value, W previousSnapshot) {
+			return delegate.copy(value, previousSnapshot);
+		}
+
+		@Override
+		W copyWithin(T value, CopyScope scope) {
+			// Already inside a scope opened further up, which is just as good
+			return scope == null ? copy(value) : delegate.copyWithin(value, scope);
+		}
+
+		@Override
+		CopyScope newBatchScope() {
+			return new CopyScope();
+		}
+
+		@Override
+		boolean isShallow() {
+			return delegate.isShallow();
+		}
+
+		@Override
+		long estimate(W copy, Set<Object> visited) {
+			return delegate.estimate(copy, visited);
+		}
+
+		@Override
+		public ImmutableCopier<T, W> parallel(int threshold, ForkJoinPool pool) {
+			return new SharingPreservingCopier<>(delegate.parallel(threshold, pool));
+		}
+	}
+
+	private static class SizedCopier<T, W> extends ImmutableCopier<T, W> {
+
+		private final ImmutableCopier<T, W> delegate;
+		private final ToLongFunction<? super W> sizer;
+
+		private SizedCopier(ImmutableCopier<T, W> delegate, ToLongFunction<? super W> sizer) {
+			this.delegate = delegate;
+			this.sizer = sizer;
+		}
+
+		@Override
+		public W copy(T value) {
+			return delegate.copy(value);
+		}
+
+		@Override
+		public W copy(T value, W previousSnapshot) {
+			return delegate.copy(value, previousSnapshot);
+		}
+
+		@Override
+		W copyWithin(T value, CopyScope scope) {
+			return delegate.copyWithin(value, scope);
+		}
+
+		@Override
+		long estimate(W copy, Set<Object> visited) {
+			return copy == null || !visited.add(copy) ? 0 : sizer.applyAsLong(copy);
+		}
+
+		@Override
+		CopyScope newBatchScope() {
+			return delegate.newBatchScope();
+		}
+
+		@Override
+		boolean isShallow() {
+			return delegate.isShallow();
+		}
+
+		@Override
+		public ImmutableCopier<T, W> parallel(int threshold, ForkJoinPool pool) {
+			return new SizedCopier<>(delegate.parallel(threshold, pool), sizer);
+		}
+	}
+
+	private static class InstrumentedCopier<T, W> extends ImmutableCopier<T, W> {
+
+		private final ImmutableCopier<T, W> delegate;
+		private final String name;
+		private final CopyListener listener;
+		private final boolean estimateBytes;
+
+		private InstrumentedCopier(ImmutableCopier<T, W> delegate, String name, CopyListener listener,
+				boolean estimateBytes) {
+
+			this.delegate = delegate;
+			this.name = name;
+			this.listener = listener;
+			this.estimateBytes = estimateBytes;
+		}
+
+		@Override
+		public W copy(T value) {
+			long start = System.nanoTime();
+			W copy = delegate.copy(value);
+			report(copy, copy == value, start);
+			return copy;
+		}
+
+		@Override
+		public W copy(T value, W previousSnapshot) {
+			long start = System.nanoTime();
+			W copy = delegate.copy(value, previousSnapshot);
+			report(copy, copy == value || (copy != null && copy == previousSnapshot), start);
+			return copy;
+		}
+
+		@Override
+		W copyWithin(T value, CopyScope scope) {
+			long start = System.nanoTime();
+			W copy = delegate.copyWithin(value, scope);
+			report(copy, copy == value, start);
+			return copy;
+		}
+
+		@Override
+		long estimate(W copy, Set<Object> visited) {
+			return delegate.estimate(copy, visited);
+		}
+
+		@Override
+		CopyScope newBatchScope() {
+			return delegate.newBatchScope();
+		}
+
+		@Override
+		boolean isShallow() {
+			return delegate.isShallow();
+		}
+
+		private void report(W copy, boolean shared, long start) {
+			long nanos = System.nanoTime() - start;
+			long bytes = !estimateBytes ? -1 : shared ? 0 : delegate.estimateRetainedBytes(copy);
+			// Shallow copiers build the whole copy in one step, the others go through their sub-copiers
+			listener.copied(name, sizeOf(copy), delegate.isShallow(), shared, bytes, nanos);
+		}
+
+		private static int sizeOf(Object copy) {
+			if (copy instanceof Collection) {
+				return ((Collection<?>) copy).size();
+			} else if (copy instanceof Map) {
+				return ((Map<?, ?>) copy).size();
+			} else if (copy instanceof Multimap) {
+				return ((Multimap<?, ?>) copy).size();
+			} else if (copy instanceof ImmutableIntArray) {
+				return ((ImmutableIntArray) copy).length();
+			} else if (copy instanceof ImmutableLongArray) {
+				return ((ImmutableLongArray) copy).length();
+			} else if (copy instanceof ImmutableDoubleArray) {
+				return ((ImmutableDoubleArray) copy).length();
+			}
+			return 1;
+		}
+
+		@Override
+		public ImmutableCopier<T, W> parallel(int threshold, ForkJoinPool pool) {
+			return new InstrumentedCopier<>(delegate.parallel(threshold, pool), name, listener, estimateBytes);
+		}
+	}
+
+	/**
+	 * Elements are copied straight into a builder sized from the input. When the input is already an instance of the
+	 * target immutable type no builder is created until some element copies to a different reference: if that never
+	 * happens, the sharing copier (the one used for identity elements) is applied instead, so that the original
+	 * immutable container is reused rather than rebuilt.
+	 */
+	private static class DelegatingCollectionCopier<A, B, C extends Collection<? extends A>, D extends ImmutableCollection<B>>
+			extends ImmutableCopier<C, D> {
+
+		private final ImmutableCopier<A, B> subcopier;
+		private final IntFunction<ImmutableCollection.Builder<B>> builderFactory;
+		private final Class<?> immutableClass;
+		private final ImmutableCopier<C, D> sharingCopier;
+		private final Parallelism parallelism;
+
+		private DelegatingCollectionCopier(ImmutableCopier<A, B> subcopier,
+				IntFunction<ImmutableCollection.Builder<B>> builderFactory, Class<?> immutableClass,
+				ImmutableCopier<C, D> sharingCopier) {
+
+			this(subcopier, builderFactory, immutableClass, sharingCopier, Parallelism.SEQUENTIAL);
+		}
+
+		private DelegatingCollectionCopier(ImmutableCopier<A, B> subcopier,
+				IntFunction<ImmutableCollection.Builder<B>> builderFactory, Class<?> immutableClass,
+				ImmutableCopier<C, D> sharingCopier, Parallelism parallelism) {
+
+			this.subcopier = subcopier;
+			this.builderFactory = builderFactory;
+			this.immutableClass = immutableClass;
+			this.sharingCopier = sharingCopier;
+			this.parallelism = parallelism;
+		}
+
+		@Override
+		public D copy(C collection) {
+			return copyElements(collection, null);
+		}
+
+		@Override
+		D copyWithin(C collection, CopyScope scope) {
+			if (scope == null) {
+				return copyElements(collection, null);
+			}
+			D cached = scope.get(this, collection);
+			return cached != null ? cached : scope.put(this, collection, copyElements(collection, scope));
+		}
+
+		@SuppressWarnings("unchecked")
+		private D copyElements(C collection, CopyScope scope) {
+			int size = collection.size();
+			if (parallelism.appliesTo(size)) {
+				return copyInParallel(collection, scope);
+			}
+			ImmutableCollection.Builder<B> builder = immutableClass.isInstance(collection)
+					? null
+					: builderFactory.apply(size);
+			int unchangedPrefix = 0;
+			for (A element : collection) {
+				B elementCopy = scope == null ? subcopier.copy(element) : subcopier.copyWithin(element, scope);
+				if (builder == null) {
+					if ((Object) elementCopy == element) {
+						unchangedPrefix++;
+						continue;
+					}
+					builder = builderFactory.apply(size);
+					// Those elements copied to themselves, so they can be added without copying them again
+					builder.addAll((Iterator<B>) Iterators.limit(collection.iterator(), unchangedPrefix));
+				}
+				builder.add(elementCopy);
+			}
+			return builder == null ? sharingCopier.copy(collection) : (D) builder.build();
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public D copy(C collection, D previousSnapshot) {
+			if (previousSnapshot == null) {
+				return copy(collection);
+			}
+			Iterator<B> previousElements = previousSnapshot.iterator();
+			ImmutableCollection.Builder<B> builder = null;
+			int unchangedPrefix = 0;
+			for (A element : collection) {
+				B previousElement = previousElements.hasNext() ? previousElements.next() : null;
+				B elementCopy = subcopier.copy(element, previousElement);
+				if (builder == null) {
+					if (elementCopy == previousElement) {
+						unchangedPrefix++;
+						continue;
+					}
+					builder = builderFactory.apply(collection.size());
+					builder.addAll(Iterators.limit(previousSnapshot.iterator(), unchangedPrefix));
+				}
+				builder.add(elementCopy);
+			}
+			if (builder != null) {
+				return (D) builder.build();
+			}
+			return previousElements.hasNext()
+					? (D) builderFactory.apply(unchangedPrefix)
+							.addAll(Iterators.limit(previousSnapshot.iterator(), unchangedPrefix))
+							.build()
+					: previousSnapshot;
+		}
+
+		@Override
+		long estimate(D copy, Set<Object> visited) {
+			return estimateElements(copy, subcopier, visited);
+		}
+
+		@SuppressWarnings("unchecked")
+		private D copyInParallel(C collection, CopyScope scope) {
+			if (scope != null) {
+				scope.makeConcurrent();
+			}
+			List<B> copies = parallelism.run(() -> collection.parallelStream()
+					.map(element -> subcopier.copyWithin(element, scope))
+					.collect(toList()));
+			if (immutableClass.isInstance(collection) && sameElements(collection, copies)) {
+				return sharingCopier.copy(collection);
+			}
+			return (D) builderFactory.apply(copies.size()).addAll(copies).build();
+		}
+
+		@Override
+		public ImmutableCopier<C, D> parallel(int threshold, ForkJoinPool pool) {
+			super.parallel(threshold, pool);
+			return new DelegatingCollectionCopier<>(subcopier, builderFactory, immutableClass, sharingCopier,
+					new Parallelism(threshold, pool));
+		}
+
+	}
+
+	/**
+	 * Same approach as {@link DelegatingCollectionCopier}, with keys and values copied straight into a builder of
+	 * type {@code B}, and an immutable input whose keys and values all copy to identical references handed to the
+	 * sharing copier.
+	 */
+	private static abstract class AbstractDelegatingMaplikeCopier<K, V, K2, V2, C, C2, B>
+			extends ImmutableCopier<C, C2> {
+
+		private final ImmutableCopier<K, K2> keySubcopier;
+		private final ImmutableCopier<V, V2> valueSubcopier;
+		private final Class<?> immutableClass;
+		private final ImmutableCopier<C, C2> sharingCopier;
+		private final Parallelism parallelism;
+
+		private AbstractDelegatingMaplikeCopier(ImmutableCopier<K, K2> keySubcopier,
+				ImmutableCopier<V, V2> valueSubcopier, Class<?> immutableClass, ImmutableCopier<C, C2> sharingCopier,
+				Parallelism parallelism) {
+
+			this.keySubcopier = keySubcopier;
+			this.valueSubcopier = valueSubcopier;
+			this.immutableClass = immutableClass;
+			this.sharingCopier = sharingCopier;
+			this.parallelism = parallelism;
+		}
+
+		@Override
+		public C2 copy(C map) {
+			return copyEntries(map, null);
+		}
+
+		@Override
+		C2 copyWithin(C map, CopyScope scope) {
+			if (scope == null) {
+				return copyEntries(map, null);
+			}
+			C2 cached = scope.get(this, map);
+			return cached != null ? cached : scope.put(this, map, copyEntries(map, scope));
+		}
+
+		private C2 copyEntries(C map, CopyScope scope) {
+			Collection<? extends Entry<? extends K, ? extends V>> entries = entries(map);
+			int size = entries.size();
+			if (parallelism.appliesTo(size)) {
+				return copyInParallel(map, entries, scope);
+			}
+			B builder = copySequentially(map, entries, immutableClass.isInstance(map) ? null : newBuilder(size), scope);
+			return builder == null ? sharingCopier.copy(map) : build(builder);
+		}
+
+		/**
+		 * Copies every entry into {@code builder}, which is null for an immutable input that might be shared as is.
+		 * In that case the builder is only created once a key or value does not copy to itself, and null is returned
+		 * if that never happens.
+		 */
+		B copySequentially(C map, Collection<? extends Entry<? extends K, ? extends V>> entries, B builder,
+				CopyScope scope) {
+
+			int unchangedPrefix = 0;
+			for (Entry<? extends K, ? extends V> entry : entries) {
+				K2 keyCopy = copyKey(entry.getKey(), scope);
+				V2 valueCopy = copyValue(entry.getValue(), scope);
+				if (builder == null) {
+					if ((Object) keyCopy == entry.getKey() && (Object) valueCopy == entry.getValue()) {
+						unchangedPrefix++;
+						continue;
+					}
+					builder = newBuilder(entries.size());
+					putAll(builder, Iterators.limit(entries.iterator(), unchangedPrefix));
+				}
+				put(builder, keyCopy, valueCopy);
+			}
+			return builder;
+		}
+
+		@Override
+		long estimate(C2 copy, Set<Object> visited) {
+			if (copy == null || !visited.add(copy)) {
+				return 0;
+			}
+			long bytes = RetainedSize.shallow(copy);
+			for (Entry<K2, V2> entry : copiedEntries(copy)) {
+				bytes += keySubcopier.estimate(entry.getKey(), visited) + valueSubcopier.estimate(entry.getValue(), visited);
+			}
+			return bytes;
+		}
+
+		final K2 copyKey(K key, CopyScope scope) {
+			return scope == null ? keySubcopier.copy(key) : keySubcopier.copyWithin(key, scope);
+		}
+
+		final V2 copyValue(V value, CopyScope scope) {
+			return scope == null ? valueSubcopier.copy(value) : valueSubcopier.copyWithin(value, scope);
+		}
+
+		@Override
+		public C2 copy(C map, C2 previousSnapshot) {
+			if (previousSnapshot == null) {
+				return copy(map);
+			}
+			Collection<? extends Entry<? extends K, ? extends V>> entries = entries(map);
+			Collection<Entry<K2, V2>> previousEntries = copiedEntries(previousSnapshot);
+			Iterator<Entry<K2, V2>> previousIterator = previousEntries.iterator();
+			B builder = null;
+			int unchangedPrefix = 0;
+			for (Entry<? extends K, ? extends V> entry : entries) {
+				Entry<K2, V2> previousEntry = previousIterator.hasNext() ? previousIterator.next() : null;
+				K2 keyCopy = keySubcopier.copy(entry.getKey());
+				V2 valueCopy = valueSubcopier.copy(entry.getValue(),
+						previousValue(previousSnapshot, keyCopy, previousEntry));
+				if (builder == null) {
+					if (previousEntry != null && keyCopy == previousEntry.getKey()
+							&& valueCopy == previousEntry.getValue()) {
+						unchangedPrefix++;
+						continue;
+					}
+					builder = newBuilder(entries.size());
+					putAll(builder, Iterators.limit(previousEntries.iterator(), unchangedPrefix));
+				}
+				put(builder, keyCopy, valueCopy);
+			}
+			if (builder != null) {
+				return build(builder);
+			}
+			if (!previousIterator.hasNext()) {
+				return previousSnapshot;
+			}
+			builder = newBuilder(unchangedPrefix);
+			putAll(builder, Iterators.limit(previousEntries.iterator(), unchangedPrefix));
+			return build(builder);
+		}
+
+		private C2 copyInParallel(C map, Collection<? extends Entry<? extends K, ? extends V>> entries,
+				CopyScope scope) {
+
+			if (scope != null) {
+				scope.makeConcurrent();
+			}
+			List<Entry<K2, V2>> copies = parallelism.run(() -> entries.parallelStream()
+					.map(entry -> Maps.immutableEntry(keySubcopier.copyWithin(entry.getKey(), scope),
+							valueSubcopier.copyWithin(entry.getValue(), scope)))
+					.collect(toList()));
+			if (immutableClass.isInstance(map) && sameEntries(entries, copies)) {
+				return sharingCopier.copy(map);
+			}
+			B builder = newBuilder(copies.size());
+			for (Entry<K2, V2> entry : copies) {
+				put(builder, entry.getKey(), entry.getValue());
+			}
+			return build(builder);
+		}
+
+		/**
+		 * Only used for entries known to be valid copies: either already copied ones, or source entries that copied to
+		 * themselves.
+		 */
+		@SuppressWarnings("unchecked")
+		private void putAll(B builder, Iterator<? extends Entry<?, ?>> entries) {
+			while (entries.hasNext()) {
+				Entry<?, ?> entry = entries.next();
+				put(builder, (K2) entry.getKey(), (V2) entry.getValue());
+			}
+		}
+
+		@Override
+		public ImmutableCopier<C, C2> parallel(int threshold, ForkJoinPool pool) {
+			super.parallel(threshold, pool);
+			return withParallelism(keySubcopier, valueSubcopier, sharingCopier, new Parallelism(threshold, pool));
+		}
+
+		abstract Collection<? extends Entry<? extends K, ? extends V>> entries(C map);
+
+		abstract Collection<Entry<K2, V2>> copiedEntries(C2 map);
+
+		/**
+		 * The value in {@code previousSnapshot} to be reused for {@code key}, if any. {@code positionalEntry} is the
+		 * entry of {@code previousSnapshot} at the same position, which is usually the right one.
+		 */
+		abstract V2 previousValue(C2 previousSnapshot, K2 key, Entry<K2, V2> positionalEntry);
+
+		abstract B newBuilder(int expectedSize);
+
+		abstract void put(B builder, K2 key, V2 value);
+
+		abstract C2 build(B builder);
+
+		abstract ImmutableCopier<C, C2> withParallelism(ImmutableCopier<K, K2> keySubcopier,
+				ImmutableCopier<V, V2> valueSubcopier, ImmutableCopier<C, C2> sharingCopier, Parallelism parallelism);
+
+	}
+
+	private static class DelegatingMapCopier<K, V, K2, V2, C extends Map<? extends K, ? extends V>, M extends ImmutableMap<K2, V2>>
+			extends AbstractDelegatingMaplikeCopier<K, V, K2, V2, C, M, ImmutableMap.Builder<K2, V2>> {
+
+		private final IntFunction<ImmutableMap.Builder<K2, V2>> builderFactory;
+		private final Class<?> immutableClass;
+
+		private DelegatingMapCopier(ImmutableCopier<K, K2> keySubcopier, ImmutableCopier<V, V2> valueSubcopier,
+				IntFunction<ImmutableMap.Builder<K2, V2>> builderFactory, Class<?> immutableClass,
+				ImmutableCopier<C, M> sharingCopier, Parallelism parallelism) {
+
+			super(keySubcopier, valueSubcopier, immutableClass, sharingCopier, parallelism);
+			this.builderFactory = builderFactory;
+			this.immutableClass = immutableClass;
+		}
+
+		@Override
+		Collection<? extends Entry<? extends K, ? extends V>> entries(C map) {
+			return map.entrySet();
+		}
+
+		@Override
+		Collection<Entry<K2, V2>> copiedEntries(M map) {
+			return map.entrySet();
+		}
+
+		@Override
+		V2 previousValue(M previousSnapshot, K2 key, Entry<K2, V2> positionalEntry) {
+			return positionalEntry != null && positionalEntry.getKey() == key
+					? positionalEntry.getValue()
+					: previousSnapshot.get(key);
+		}
+
+		@Override
+		ImmutableMap.Builder<K2, V2> newBuilder(int expectedSize) {
+			return builderFactory.apply(expectedSize);
+		}
+
+		@Override
+		void put(ImmutableMap.Builder<K2, V2> builder, K2 key, V2 value) {
+			builder.put(key, value);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		M build(ImmutableMap.Builder<K2, V2> builder) {
+			return (M) builder.build();
+		}
+
+		@Override
+		ImmutableCopier<C, M> withParallelism(ImmutableCopier<K, K2> keySubcopier, ImmutableCopier<V, V2> valueSubcopier,
+				ImmutableCopier<C, M> sharingCopier, Parallelism parallelism) {
+
+			return new DelegatingMapCopier<>(keySubcopier, valueSubcopier, builderFactory, immutableClass,
+					sharingCopier, parallelism);
+		}
+
+	}
+
+	/**
+	 * Guava's multimap builders cannot be presized, so {@code expectedSize} is ignored here.
+	 */
+	private static abstract class AbstractDelegatingMultimapCopier<K, V, K2, V2, C extends Multimap<? extends K, ? extends V>, C2 extends ImmutableMultimap<K2, V2>>
+			extends AbstractDelegatingMaplikeCopier<K, V, K2, V2, C, C2, ImmutableMultimap.Builder<K2, V2>> {
+
+		private AbstractDelegatingMultimapCopier(ImmutableCopier<K, K2> keySubcopier,
+				ImmutableCopier<V, V2> valueSubcopier, Class<?> immutableClass, ImmutableCopier<C, C2> sharingCopier,
+				Parallelism parallelism) {
+
+			super(keySubcopier, valueSubcopier, immutableClass, sharingCopier, parallelism);
+		}
+
+		@Override
+		Collection<? extends Entry<? extends K, ? extends V>> entries(C multimap) {
+			return multimap.entries();
+		}
+
+		/**
+		 * Walks the multimap one key at a time, so each key is copied only once and no entry is ever created. The
+		 * values of a key are gathered in a buffer reused for every key, and handed to the builder in a single call.
+		 */
+		@SuppressWarnings("unchecked")
+		@Override
+		ImmutableMultimap.Builder<K2, V2> copySequentially(C multimap,
+				Collection<? extends Entry<? extends K, ? extends V>> entries, ImmutableMultimap.Builder<K2, V2> builder,
+				CopyScope scope) {
+
+			Map<? extends K, ? extends Collection<? extends V>> groups = multimap.asMap();
+			List<V2> valueCopies = new ArrayList<>();
+			int unchangedPrefix = 0;
+			for (Entry<? extends K, ? extends Collection<? extends V>> group : groups.entrySet()) {
+				K2 keyCopy = copyKey(group.getKey(), scope);
+				boolean unchanged = (Object) keyCopy == group.getKey();
+				valueCopies.clear();
+				for (V value : group.getValue()) {
+					V2 valueCopy = copyValue(value, scope);
+					unchanged &= (Object) valueCopy == value;
+					valueCopies.add(valueCopy);
+				}
+				if (builder == null) {
+					if (unchanged) {
+						unchangedPrefix++;
+						continue;
+					}
+					builder = newBuilder(entries.size());
+					Iterator<? extends Entry<? extends K, ? extends Collection<? extends V>>> unchangedGroups =
+							Iterators.limit(groups.entrySet().iterator(), unchangedPrefix);
+					while (unchangedGroups.hasNext()) {
+						Entry<? extends K, ? extends Collection<? extends V>> unchangedGroup = unchangedGroups.next();
+						builder.putAll((K2) unchangedGroup.getKey(), (Collection<V2>) unchangedGroup.getValue());
+					}
+				}
+				builder.putAll(keyCopy, valueCopies);
+			}
+			return builder;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		Collection<Entry<K2, V2>> copiedEntries(C2 multimap) {
+			return (Collection<Entry<K2, V2>>) multimap.entries();
+		}
+
+		/**
+		 * Values of a key are matched by position, just like the elements of a collection.
+		 */
+		@Override
+		V2 previousValue(C2 previousSnapshot, K2 key, Entry<K2, V2> positionalEntry) {
+			return positionalEntry != null && Objects.equals(positionalEntry.getKey(), key)
+					? positionalEntry.getValue()
+					: null;
+		}
+
+		@Override
+		void put(ImmutableMultimap.Builder<K2, V2> builder, K2 key, V2 value) {
+			builder.put(key, value);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		C2 build(ImmutableMultimap.Builder<K2, V2> builder) {
+			return (C2) builder.build();
+		}
+
+	}
+
+	private static class DelegatingMultimapCopier<K, V, K2, V2, C extends Multimap<? extends K, ? extends V>>
+			extends AbstractDelegatingMultimapCopier<K, V, K2, V2, C, ImmutableMultimap<K2, V2>> {
+
+		private DelegatingMultimapCopier(ImmutableCopier<K, K2> keySubcopier, ImmutableCopier<V, V2> valueSubcopier,
+				ImmutableCopier<C, ImmutableMultimap<K2, V2>> sharingCopier, Parallelism parallelism) {
+
+			super(keySubcopier, valueSubcopier, ImmutableMultimap.class, sharingCopier, parallelism);
+		}
+
+		@Override
+		ImmutableMultimap.Builder<K2, V2> newBuilder(int expectedSize) {
+			return ImmutableListMultimap.builder();
+		}
+
+		@Override
+		ImmutableCopier<C, ImmutableMultimap<K2, V2>> withParallelism(ImmutableCopier<K, K2> keySubcopier,
+				ImmutableCopier<V, V2> valueSubcopier, ImmutableCopier<C, ImmutableMultimap<K2, V2>> sharingCopier,
+				Parallelism parallelism) {
+
+			return new DelegatingMultimapCopier<>(keySubcopier, valueSubcopier, sharingCopier, parallelism);
+		}
+
+	}
+
+	private static class DelegatingListMultimapCopier<K, V, K2, V2, C extends ListMultimap<? extends K, ? extends V>>
+			extends AbstractDelegatingMultimapCopier<K, V, K2, V2, C, ImmutableListMultimap<K2, V2>> {
+
+		private DelegatingListMultimapCopier(ImmutableCopier<K, K2> keySubcopier,
+				ImmutableCopier<V, V2> valueSubcopier, ImmutableCopier<C, ImmutableListMultimap<K2, V2>> sharingCopier,
+				Parallelism parallelism) {
+
+			super(keySubcopier, valueSubcopier, ImmutableListMultimap.class, sharingCopier, parallelism);
+		}
+
+		@Override
+		ImmutableMultimap.Builder<K2, V2> newBuilder(int expectedSize) {
+			return ImmutableListMultimap.builder();
+		}
+
+		@Override
+		ImmutableCopier<C, ImmutableListMultimap<K2, V2>> withParallelism(ImmutableCopier<K, K2> keySubcopier,
+				ImmutableCopier<V, V2> valueSubcopier, ImmutableCopier<C, ImmutableListMultimap<K2, V2>> sharingCopier,
+				Parallelism parallelism) {
+
+			return new DelegatingListMultimapCopier<>(keySubcopier, valueSubcopier, sharingCopier, parallelism);
+		}
+
+	}
+
+	private static class DelegatingSetMultimapCopier<K, V, K2, V2, C extends SetMultimap<? extends K, ? extends V>>
+			extends AbstractDelegatingMultimapCopier<K, V, K2, V2, C, ImmutableSetMultimap<K2, V2>> {
+
+		private DelegatingSetMultimapCopier(ImmutableCopier<K, K2> keySubcopier,
+				ImmutableCopier<V, V2> valueSubcopier, ImmutableCopier<C, ImmutableSetMultimap<K2, V2>> sharingCopier,
+				Parallelism parallelism) {
+
+			super(keySubcopier, valueSubcopier, ImmutableSetMultimap.class, sharingCopier, parallelism);
+		}
+
+		@Override
+		ImmutableMultimap.Builder<K2, V2> newBuilder(int expectedSize) {
+			return ImmutableSetMultimap.builder();
+		}
+
+		@Override
+		ImmutableCopier<C, ImmutableSetMultimap<K2, V2>> withParallelism(ImmutableCopier<K, K2> keySubcopier,
+				ImmutableCopier<V, V2> valueSubcopier, ImmutableCopier<C, ImmutableSetMultimap<K2, V2>> sharingCopier,
+				Parallelism parallelism) {
+
+			return new DelegatingSetMultimapCopier<>(keySubcopier, valueSubcopier, sharingCopier, parallelism);
+		}
+
+	}
+
+	/**
+	 * Copiers of containers of values, which copy their input in a single step.
+	 */
+	private static abstract class ShallowCopier<T, W> extends ImmutableCopier<T, W> {
+
+		@Override
+		boolean isShallow() {
+			return true;
+		}
+	}
+
+	private static final ImmutableCopier<? extends List<?>, ? extends ImmutableList<?>> simpleListCopier =
+			new ShallowCopier<List<?>, ImmutableList<?>>() {
+
+				@Override
+				public ImmutableList<?> copy(List<?> value) {
+					return ImmutableList.copyOf(value);
+				}
+
+				@Override
+				public ImmutableList<?> copy(List<?> value, ImmutableList<?> previousSnapshot) {
+					return previousSnapshot != null && sameElements(value, previousSnapshot)
+							? previousSnapshot
+							: copy(value);
+				}
+			};
+
+	private static final ImmutableCopier<? extends Set<?>, ? extends ImmutableSet<?>> simpleSetCopier =
+			new ShallowCopier<Set<Object>, ImmutableSet<Object>>() {
+
+				@Override
+				public ImmutableSet<Object> copy(Set<Object> value) {
+					return ImmutableSet.copyOf(value);
+				}
+
+				@Override
+				public ImmutableSet<Object> copy(Set<Object> value, ImmutableSet<Object> previousSnapshot) {
+					return previousSnapshot != null && sameElements(value, previousSnapshot)
+							? previousSnapshot
+							: copy(value);
+				}
+			};
+
+	private static final ImmutableCopier<? extends Multiset<?>, ? extends ImmutableMultiset<?>> simpleMultisetCopier =
+			new ShallowCopier<Multiset<Object>, ImmutableMultiset<Object>>() {
+
+				@Override
+				public ImmutableMultiset<Object> copy(Multiset<Object> value) {
+					return ImmutableMultiset.copyOf(value);
+				}
+
+				@Override
+				public ImmutableMultiset<Object> copy(Multiset<Object> value, ImmutableMultiset<Object> previousSnapshot) {
+					return previousSnapshot != null && sameElements(value, previousSnapshot)
+							? previousSnapshot
+							: copy(value);
+				}
+			};
+
+	private static final ImmutableCopier<? extends Map<?, ?>, ? extends ImmutableMap<?, ?>> simpleMapCopier =
+			new ShallowCopier<Map<Object, Object>, ImmutableMap<Object, Object>>() {
+
+				@Override
+				public ImmutableMap<Object, Object> copy(Map<Object, Object> map) {
+					return ImmutableMap.copyOf(map);
+				}
+
+				@Override
+				public ImmutableMap<Object, Object> copy(Map<Object, Object> map, ImmutableMap<Object, Object> previousSnapshot) {
+					return previousSnapshot != null && sameEntries(map.entrySet(), previousSnapshot.entrySet())
+							? previousSnapshot
+							: copy(map);
+				}
+
+			};
+
+	private static final ImmutableCopier<? extends Multimap<?, ?>, ? extends ImmutableMultimap<?, ?>> simpleMultimapCopier =
+			new ShallowCopier<Multimap<Object, Object>, ImmutableMultimap<Object, Object>>() {
+
+				@Override
+				public ImmutableMultimap<Object, Object> copy(Multimap<Object, Object> multimap) {
+					return ImmutableMultimap.copyOf(multimap);
+				}
+
+				@Override
+				public ImmutableMultimap<Object, Object> copy(Multimap<Object, Object> multimap, ImmutableMultimap<Object, Object> previousSnapshot) {
+					return previousSnapshot != null && sameEntries(multimap.entries(), previousSnapshot.entries())
+							? previousSnapshot
+							: copy(multimap);
+				}
+
+			};
+
+	private static final ImmutableCopier<? extends ListMultimap<?, ?>, ? extends ImmutableListMultimap<?, ?>> simpleListMultimapCopier =
+			new ShallowCopier<ListMultimap<Object, Object>, ImmutableListMultimap<Object, Object>>() {
+
+				@Override
+				public ImmutableListMultimap<Object, Object> copy(ListMultimap<Object, Object> multimap) {
+					return ImmutableListMultimap.copyOf(multimap);
+				}
+
+				@Override
+				public ImmutableListMultimap<Object, Object> copy(ListMultimap<Object, Object> multimap, ImmutableListMultimap<Object, Object> previousSnapshot) {
+					return previousSnapshot != null && sameEntries(multimap.entries(), previousSnapshot.entries())
+							? previousSnapshot
+							: copy(multimap);
+				}
+
+			};
+
+	private static final ImmutableCopier<? extends SetMultimap<?, ?>, ? extends ImmutableSetMultimap<?, ?>> simpleSetMultimapCopier =
+			new ShallowCopier<SetMultimap<Object, Object>, ImmutableSetMultimap<Object, Object>>() {
+
+				@Override
+				public ImmutableSetMultimap<Object, Object> copy(SetMultimap<Object, Object> multimap) {
+					return ImmutableSetMultimap.copyOf(multimap);
+				}
+
+				@Override
+				public ImmutableSetMultimap<Object, Object> copy(SetMultimap<Object, Object> multimap, ImmutableSetMultimap<Object, Object> previousSnapshot) {
+					return previousSnapshot != null && sameEntries(multimap.entries(), previousSnapshot.entries())
+							? previousSnapshot
+							: copy(multimap);
+				}
+
+			};
+
+	private static final ImmutableCopier<Collection<Integer>, ImmutableIntArray> intListCopier =
+			new ShallowCopier<Collection<Integer>, ImmutableIntArray>() {
+
+				@Override
+				public ImmutableIntArray copy(Collection<Integer> value) {
+					return ImmutableIntArray.copyOf(value);
+				}
+
+				@Override
+				public ImmutableIntArray copy(Collection<Integer> value, ImmutableIntArray previousSnapshot) {
+					if (previousSnapshot == null || previousSnapshot.length() != value.size()) {
+						return copy(value);
+					}
+					int index = 0;
+					for (int element : value) {
+						if (previousSnapshot.get(index++) != element) {
+							return copy(value);
+						}
+					}
+					return previousSnapshot;
+				}
+			};
+
+	private static final ImmutableCopier<Collection<Long>, ImmutableLongArray> longListCopier =
+			new ShallowCopier<Collection<Long>, ImmutableLongArray>() {
+
+				@Override
+				public ImmutableLongArray copy(Collection<Long> value) {
+					return ImmutableLongArray.copyOf(value);
+				}
+
+				@Override
+				public ImmutableLongArray copy(Collection<Long> value, ImmutableLongArray previousSnapshot) {
+					if (previousSnapshot == null || previousSnapshot.length() != value.size()) {
+						return copy(value);
+					}
+					int index = 0;
+					for (long element : value) {
+						if (previousSnapshot.get(index++) != element) {
+							return copy(value);
+						}
+					}
+					return previousSnapshot;
+				}
+			};
+
+	/**
+	 * Elements are compared by their bits, just like {@link Double#equals(Object)} does, so that NaNs are reused too.
+	 */
+	private static final ImmutableCopier<Collection<Double>, ImmutableDoubleArray> doubleListCopier =
+			new ShallowCopier<Collection<Double>, ImmutableDoubleArray>() {
+
+				@Override
+				public ImmutableDoubleArray copy(Collection<Double> value) {
+					return ImmutableDoubleArray.copyOf(value);
+				}
+
+				@Override
+				public ImmutableDoubleArray copy(Collection<Double> value, ImmutableDoubleArray previousSnapshot) {
+					if (previousSnapshot == null || previousSnapshot.length() != value.size()) {
+						return copy(value);
+					}
+					int index = 0;
+					for (double element : value) {
+						if (Double.doubleToLongBits(previousSnapshot.get(index++)) != Double.doubleToLongBits(element)) {
+							return copy(value);
+						}
+					}
+					return previousSnapshot;
+				}
+			};
+
+	/**
+	 * Whether {@code sourceComparator}, the comparator of some sorted collection (null meaning natural ordering), sorts
+	 * exactly like {@code comparator}.
+	 */
+	private static boolean sameComparator(Comparator<?> comparator, Comparator<?> sourceComparator) {
+		return naturalIfNull(comparator).equals(naturalIfNull(sourceComparator));
+	}
+
+	private static Comparator<?> naturalIfNull(Comparator<?> comparator) {
+		return comparator == null || comparator == Comparator.naturalOrder() ? Ordering.natural() : comparator;
+	}
+
+	private static <E> ImmutableCopier<Set<E>, ImmutableSortedSet<E>> simpleSortedSetCopier(
+			Comparator<? super E> comparator) {
+
+		return new ShallowCopier<Set<E>, ImmutableSortedSet<E>>() {
+
+			@Override
+			public ImmutableSortedSet<E> copy(Set<E> value) {
+				// copyOf already returns an ImmutableSortedSet with the same comparator as is
+				if (!(value instanceof ImmutableSortedSet) && value instanceof SortedSet
+						&& sameComparator(comparator, ((SortedSet<E>) value).comparator())) {
+					return ImmutableSortedSet.copyOfSorted((SortedSet<E>) value);
+				}
+				return ImmutableSortedSet.copyOf(comparator, value);
+			}
+		};
+	}
+
+	private static <E> ImmutableCopier<Multiset<E>, ImmutableSortedMultiset<E>> simpleSortedMultisetCopier(
+			Comparator<? super E> comparator) {
+
+		return new ShallowCopier<Multiset<E>, ImmutableSortedMultiset<E>>() {
+
+			@Override
+			public ImmutableSortedMultiset<E> copy(Multiset<E> value) {
+				if (!(value instanceof ImmutableSortedMultiset) && value instanceof SortedMultiset
+						&& sameComparator(comparator, ((SortedMultiset<E>) value).comparator())) {
+					return ImmutableSortedMultiset.copyOfSorted((SortedMultiset<E>) value);
+				}
+				return ImmutableSortedMultiset.copyOf(comparator, value);
+			}
+		};
+	}
+
+	private static <K, V> ImmutableCopier<Map<K, V>, ImmutableSortedMap<K, V>> simpleSortedMapCopier(
+			Comparator<? super K> comparator) {
+
+		return new ShallowCopier<Map<K, V>, ImmutableSortedMap<K, V>>() {
+
+			@Override
+			public ImmutableSortedMap<K, V> copy(Map<K, V> map) {
+				if (map instanceof SortedMap && sameComparator(comparator, ((SortedMap<K, V>) map).comparator())) {
+					return ImmutableSortedMap.copyOfSorted((SortedMap<K, V>) map);
+				}
+				return ImmutableSortedMap.copyOf(map, comparator);
+			}
+		};
+	}
 }
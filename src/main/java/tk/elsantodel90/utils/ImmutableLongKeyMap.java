@@ -0,0 +1,269 @@
+/*
+ * Copyright 2020 Agustín Santiago Gutiérrez
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package tk.elsantodel90.utils;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.google.common.collect.Maps;
+import com.google.common.primitives.ImmutableLongArray;
+
+/**
+ * An immutable map from {@code long} keys to non-null values, taking a fraction of the memory of an
+ * {@code ImmutableMap<Long, V>}: keys are stored unboxed in a primitive array, and values in a parallel array, so there
+ * are no key or entry objects at all. Lookups through {@link #get(long)} allocate nothing.
+ * <p>
+ * The table uses open addressing with linear probing, kept at most half full, where an empty slot is one with no
+ * value. Iteration order is the order of the table, not the insertion order.
+ *
+ * @author <a href=
+ *         "https://github.com/elsantodel90/java-utils">https://github.com/elsantodel90/java-utils</a>
+ *
+ */
+public final class ImmutableLongKeyMap<V> {
+
+	// Public interface
+
+	@FunctionalInterface
+	public interface EntryConsumer<V> {
+		void accept(long key, V value);
+	}
+
+	@SuppressWarnings("unchecked")
+	public static <V> ImmutableLongKeyMap<V> of() {
+		return (ImmutableLongKeyMap<V>) EMPTY;
+	}
+
+	public static <V> ImmutableLongKeyMap<V> copyOf(Map<Long, ? extends V> map) {
+		return copyOf(map, Function.identity());
+	}
+
+	public V get(long key) {
+		return getOrDefault(key, null);
+	}
+
+	@SuppressWarnings("unchecked")
+	public V getOrDefault(long key, V defaultValue) {
+		for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				return (V) values[i];
+			}
+		}
+		return defaultValue;
+	}
+
+	public boolean containsKey(long key) {
+		return get(key) != null;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	public void forEach(EntryConsumer<? super V> action) {
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null) {
+				action.accept(keys[i], (V) values[i]);
+			}
+		}
+	}
+
+	public ImmutableLongArray keys() {
+		ImmutableLongArray.Builder builder = ImmutableLongArray.builder(size);
+		forEach((key, value) -> builder.add(key));
+		return builder.build();
+	}
+
+	/**
+	 * An unmodifiable {@code Map} view of this map, boxing keys on access, for interoperability.
+	 */
+	public Map<Long, V> asMap() {
+		return new MapView();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (!(obj instanceof ImmutableLongKeyMap)) {
+			return false;
+		}
+		ImmutableLongKeyMap<?> other = (ImmutableLongKeyMap<?>) obj;
+		if (other.size != size) {
+			return false;
+		}
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null && !values[i].equals(other.get(keys[i]))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Same as the hash code of {@link #asMap()}.
+	 */
+	@Override
+	public int hashCode() {
+		int hashCode = 0;
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null) {
+				hashCode += Long.hashCode(keys[i]) ^ values[i].hashCode();
+			}
+		}
+		return hashCode;
+	}
+
+	@Override
+	public String toString() {
+		return asMap().toString();
+	}
+
+	// Internal implementation
+
+	private static final ImmutableLongKeyMap<Object> EMPTY = new ImmutableLongKeyMap<>(new long[1], new Object[1], 0);
+
+	private final long[] keys;
+	private final Object[] values;
+	private final int size;
+	private final int mask;
+
+	private ImmutableLongKeyMap(long[] keys, Object[] values, int size) {
+		this.keys = keys;
+		this.values = values;
+		this.size = size;
+		this.mask = values.length - 1;
+	}
+
+	/**
+	 * Builds the table from {@code map}, with each value transformed by {@code valueCopier}.
+	 */
+	static <V, V2> ImmutableLongKeyMap<V2> copyOf(Map<Long, ? extends V> map,
+			Function<? super V, ? extends V2> valueCopier) {
+
+		int size = map.size();
+		if (size == 0) {
+			return of();
+		}
+		int capacity = HashTables.capacity(size);
+		long[] keys = new long[capacity];
+		Object[] values = new Object[capacity];
+		int mask = capacity - 1;
+		for (Entry<Long, ? extends V> entry : map.entrySet()) {
+			long key = checkNotNull(entry.getKey(), "null key in %s", map);
+			Object value = checkNotNull(valueCopier.apply(entry.getValue()), "null value for key %s", key);
+			int i = HashTables.slot(key, mask);
+			while (values[i] != null) {
+				i = (i + 1) & mask;
+			}
+			keys[i] = key;
+			values[i] = value;
+		}
+		return new ImmutableLongKeyMap<>(keys, values, size);
+	}
+
+	/**
+	 * The number of slots of the table, for size estimations. The empty map is shared, so it has none.
+	 */
+	int capacity() {
+		return size == 0 ? 0 : values.length;
+	}
+
+	private int slot(long key) {
+		return HashTables.slot(key, mask);
+	}
+
+	private final class MapView extends AbstractMap<Long, V> {
+
+		@Override
+		public V get(Object key) {
+			return key instanceof Long ? ImmutableLongKeyMap.this.get((Long) key) : null;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return get(key) != null;
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public Set<Entry<Long, V>> entrySet() {
+			return new AbstractSet<Entry<Long, V>>() {
+
+				@Override
+				public Iterator<Entry<Long, V>> iterator() {
+					return new Iterator<Entry<Long, V>>() {
+
+						private int next = advance(0);
+
+						private int advance(int from) {
+							int i = from;
+							while (i < values.length && values[i] == null) {
+								i++;
+							}
+							return i;
+						}
+
+						@Override
+						public boolean hasNext() {
+							return next < values.length;
+						}
+
+						@SuppressWarnings("unchecked")
+						@Override
+						public Entry<Long, V> next() {
+							if (!hasNext()) {
+								throw new NoSuchElementException();
+							}
+							Entry<Long, V> entry = Maps.immutableEntry(keys[next], (V) values[next]);
+							next = advance(next + 1);
+							return entry;
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return size;
+				}
+			};
+		}
+	}
+}
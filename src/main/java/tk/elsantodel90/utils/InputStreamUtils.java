@@ -20,15 +20,30 @@
  */
 package tk.elsantodel90.utils;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Iterator;
-
-import com.google.common.collect.Iterators;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A utility class allowing an InputStream or a Reader to be obtained by implementing only a much simpler
@@ -46,16 +61,104 @@ public class InputStreamUtils {
 		return new ByteArrayIteratorInputStream(iter);
 	}
 
+	/**
+	 * Reading advances the position of the buffers provided by the iterator, whose contents are never copied to an
+	 * intermediate array.
+	 */
+	public static InputStream inputStreamFromByteBufferIterator(Iterator<ByteBuffer> iter) {
+		return new ByteBufferIteratorInputStream(iter);
+	}
+
+	/**
+	 * Reading advances the position of the buffers provided by the iterator, whose remaining bytes are bulk put into
+	 * the destination buffer.
+	 */
+	public static ReadableByteChannel channelFromByteBufferIterator(Iterator<ByteBuffer> iter) {
+		return new ByteBufferIteratorChannel(iter);
+	}
+
+	/**
+	 * Writes the remaining bytes of every buffer provided by the iterator to a blocking channel, such as a FileChannel
+	 * or a SocketChannel, handing over several buffers at once with gathering writes. Direct buffers thus reach the
+	 * channel without any copy.
+	 * 
+	 * @return the number of bytes written
+	 */
+	public static long writeByteBufferIterator(Iterator<ByteBuffer> iter, GatheringByteChannel channel)
+			throws IOException {
+		ByteBuffer[] batch = new ByteBuffer[GATHERING_WRITE_BATCH];
+		long written = 0;
+		while (iter.hasNext()) {
+			int count = 0;
+			while (count < batch.length && iter.hasNext()) {
+				ByteBuffer buffer = iter.next();
+				if (buffer.hasRemaining()) {
+					batch[count++] = buffer;
+				}
+			}
+			int offset = 0;
+			while (offset < count) {
+				written += channel.write(batch, offset, count - offset);
+				while (offset < count && !batch[offset].hasRemaining()) {
+					batch[offset++] = null;
+				}
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * Like {@link #inputStreamFromByteArrayIterator(Iterator)}, but the iterator is driven by a background daemon
+	 * thread, which keeps up to {@code maxQueuedChunks} chunks ready ahead of the reader.
+	 */
+	public static InputStream prefetchingInputStreamFromByteArrayIterator(Iterator<byte[]> iter, int maxQueuedChunks) {
+		return prefetchingInputStreamFromByteArrayIterator(iter, maxQueuedChunks, runnable -> {
+			Thread thread = new Thread(runnable, "InputStreamUtils-prefetch");
+			thread.setDaemon(true);
+			thread.start();
+		});
+	}
+
+	/**
+	 * Like {@link #inputStreamFromByteArrayIterator(Iterator)}, but the iterator is driven by a task submitted to
+	 * {@code executor}, which keeps up to {@code maxQueuedChunks} chunks ready ahead of the reader, so that producing
+	 * and consuming chunks overlap. Exceptions thrown by the iterator are rethrown by read, wrapped in an IOException.
+	 * Closing the stream stops the task after its current chunk. It may be closed from another thread while a read is
+	 * waiting for the next chunk, which then fails with an IOException.
+	 */
+	public static InputStream prefetchingInputStreamFromByteArrayIterator(Iterator<byte[]> iter, int maxQueuedChunks,
+			Executor executor) {
+		checkArgument(maxQueuedChunks > 0, "maxQueuedChunks must be positive: %s", maxQueuedChunks);
+		PrefetchingInputStream stream = new PrefetchingInputStream(iter, maxQueuedChunks);
+		executor.execute(stream::produce);
+		return stream;
+	}
+
+	/**
+	 * Strings are encoded incrementally, straight into the buffers passed to read, so no byte array is created for
+	 * each of them. A surrogate pair split between two consecutive strings is encoded as the character it stands for,
+	 * while malformed or unmappable input is replaced by the charset's default replacement, as in
+	 * {@link String#getBytes(Charset)}.
+	 */
 	public static InputStream inputStreamFromStringIterator(Iterator<String> iter, Charset charset) {
-		return inputStreamFromByteArrayIterator(Iterators.transform(iter, s -> s.getBytes(charset)));
+		return new StringIteratorInputStream(iter, charset.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE));
 	}
 
 	public static InputStream utf8StreamFromStringIterator(Iterator<String> iter) {
 		return inputStreamFromStringIterator(iter, StandardCharsets.UTF_8);
 	}
 
+	/**
+	 * Chars are copied directly from the strings, without going through any encoding.
+	 */
 	public static Reader readerFromStringIterator(Iterator<String> iter) {
-		return new InputStreamReader(utf8StreamFromStringIterator(iter), StandardCharsets.UTF_8);
+		return readerFromCharSequenceIterator(iter);
+	}
+
+	public static Reader readerFromCharSequenceIterator(Iterator<? extends CharSequence> iter) {
+		return new CharSequenceIteratorReader(iter);
 	}
 
 	// Internal implementation
@@ -63,6 +166,10 @@ public class InputStreamUtils {
 	private InputStreamUtils() {
 	}
 
+	private static final int GATHERING_WRITE_BATCH = 64;
+	private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+	private static final int TRANSFER_BUFFER_SIZE = 8192;
+
 	private static class ByteArrayIteratorInputStream extends InputStream {
 
 		private final Iterator<byte[]> iter;
@@ -90,23 +197,598 @@ public class InputStreamUtils {
 			if (!ensureNext()) {
 				return -1;
 			}
-			return nextArray[nextIndex++];
+			return nextArray[nextIndex++] & 0xFF;
 		}
 
 		@Override
 		public int read(byte[] b, int off, int len) throws IOException {
+			checkPositionIndexes(off, off + len, b.length);
+			if (len == 0) {
+				return 0;
+			}
 			if (!ensureNext()) {
 				return -1;
 			}
-			int readSize = Math.min(nextArray.length - nextIndex, len);
-			System.arraycopy(nextArray, nextIndex, b, off, readSize);
-			nextIndex += readSize;
+			int readSize = 0;
+			do {
+				int transferSize = Math.min(nextArray.length - nextIndex, len - readSize);
+				System.arraycopy(nextArray, nextIndex, b, off + readSize, transferSize);
+				nextIndex += transferSize;
+				readSize += transferSize;
+			} while (readSize < len && ensureNext());
 			return readSize;
 		}
 
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = 0;
+			while (skipped < n && ensureNext()) {
+				int skipSize = (int) Math.min(nextArray.length - nextIndex, n - skipped);
+				nextIndex += skipSize;
+				skipped += skipSize;
+			}
+			return skipped;
+		}
+
+		// The following methods are new ones while compiling for Java 8, and override InputStream methods added in Java
+		// 9 and 11 when running on those, so they cannot be annotated with @Override until the target moves past 8
+
+		public long transferTo(OutputStream out) throws IOException {
+			long transferred = 0;
+			while (ensureNext()) {
+				int transferSize = nextArray.length - nextIndex;
+				out.write(nextArray, nextIndex, transferSize);
+				nextIndex += transferSize;
+				transferred += transferSize;
+			}
+			return transferred;
+		}
+
+		public byte[] readAllBytes() throws IOException {
+			return readNBytes(Integer.MAX_VALUE);
+		}
+
+		/**
+		 * Remaining chunks are gathered first, so the result is allocated with its exact size and filled only once.
+		 */
+		public byte[] readNBytes(int len) throws IOException {
+			checkArgument(len >= 0, "len must not be negative: %s", len);
+			List<ByteBuffer> segments = new ArrayList<>();
+			long total = 0;
+			while (total < len && ensureNext()) {
+				int segmentSize = (int) Math.min(nextArray.length - nextIndex, len - total);
+				if (total + segmentSize > MAX_ARRAY_SIZE) {
+					throw new OutOfMemoryError("Required array size too large");
+				}
+				segments.add(ByteBuffer.wrap(nextArray, nextIndex, segmentSize));
+				nextIndex += segmentSize;
+				total += segmentSize;
+			}
+			byte[] result = new byte[(int) total];
+			int resultIndex = 0;
+			for (ByteBuffer segment : segments) {
+				int segmentSize = segment.remaining();
+				segment.get(result, resultIndex, segmentSize);
+				resultIndex += segmentSize;
+			}
+			return result;
+		}
+
+		public int readNBytes(byte[] b, int off, int len) throws IOException {
+			int readSize = read(b, off, len);
+			return Math.max(readSize, 0);
+		}
+
 		@Override
 		public int available() throws IOException {
 			return nextArray == null ? 0 : nextArray.length - nextIndex;
 		}
 	}
+
+	private static class ByteBufferIteratorInputStream extends InputStream {
+
+		private final Iterator<ByteBuffer> iter;
+
+		public ByteBufferIteratorInputStream(Iterator<ByteBuffer> iter) {
+			this.iter = iter;
+		}
+
+		private ByteBuffer nextBuffer = null;
+
+		private boolean ensureNext() {
+			while (nextBuffer == null || !nextBuffer.hasRemaining()) {
+				if (!iter.hasNext()) {
+					return false;
+				}
+				nextBuffer = iter.next();
+			}
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!ensureNext()) {
+				return -1;
+			}
+			return nextBuffer.get() & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			checkPositionIndexes(off, off + len, b.length);
+			if (len == 0) {
+				return 0;
+			}
+			if (!ensureNext()) {
+				return -1;
+			}
+			int readSize = 0;
+			do {
+				int transferSize = Math.min(nextBuffer.remaining(), len - readSize);
+				nextBuffer.get(b, off + readSize, transferSize);
+				readSize += transferSize;
+			} while (readSize < len && ensureNext());
+			return readSize;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = 0;
+			while (skipped < n && ensureNext()) {
+				int skipSize = (int) Math.min(nextBuffer.remaining(), n - skipped);
+				nextBuffer.position(nextBuffer.position() + skipSize);
+				skipped += skipSize;
+			}
+			return skipped;
+		}
+
+		// The following methods are new ones while compiling for Java 8, and override InputStream methods added in Java
+		// 9 and 11 when running on those, so they cannot be annotated with @Override until the target moves past 8
+
+		/**
+		 * Heap buffers are written straight from their backing array, others through a single reused array.
+		 */
+		public long transferTo(OutputStream out) throws IOException {
+			long transferred = 0;
+			byte[] transferBuffer = null;
+			while (ensureNext()) {
+				int transferSize = nextBuffer.remaining();
+				if (nextBuffer.hasArray()) {
+					out.write(nextBuffer.array(), nextBuffer.arrayOffset() + nextBuffer.position(), transferSize);
+					nextBuffer.position(nextBuffer.limit());
+				} else {
+					if (transferBuffer == null) {
+						transferBuffer = new byte[TRANSFER_BUFFER_SIZE];
+					}
+					transferSize = Math.min(transferSize, transferBuffer.length);
+					nextBuffer.get(transferBuffer, 0, transferSize);
+					out.write(transferBuffer, 0, transferSize);
+				}
+				transferred += transferSize;
+			}
+			return transferred;
+		}
+
+		public byte[] readAllBytes() throws IOException {
+			return readNBytes(Integer.MAX_VALUE);
+		}
+
+		/**
+		 * Remaining buffers are gathered first, so the result is allocated with its exact size and filled only once.
+		 */
+		public byte[] readNBytes(int len) throws IOException {
+			checkArgument(len >= 0, "len must not be negative: %s", len);
+			List<ByteBuffer> segments = new ArrayList<>();
+			long total = 0;
+			while (total < len && ensureNext()) {
+				int segmentSize = (int) Math.min(nextBuffer.remaining(), len - total);
+				if (total + segmentSize > MAX_ARRAY_SIZE) {
+					throw new OutOfMemoryError("Required array size too large");
+				}
+				ByteBuffer segment = nextBuffer.duplicate();
+				segment.limit(segment.position() + segmentSize);
+				segments.add(segment);
+				nextBuffer.position(nextBuffer.position() + segmentSize);
+				total += segmentSize;
+			}
+			byte[] result = new byte[(int) total];
+			int resultIndex = 0;
+			for (ByteBuffer segment : segments) {
+				int segmentSize = segment.remaining();
+				segment.get(result, resultIndex, segmentSize);
+				resultIndex += segmentSize;
+			}
+			return result;
+		}
+
+		public int readNBytes(byte[] b, int off, int len) throws IOException {
+			int readSize = read(b, off, len);
+			return Math.max(readSize, 0);
+		}
+
+		@Override
+		public int available() throws IOException {
+			return nextBuffer == null ? 0 : nextBuffer.remaining();
+		}
+	}
+
+	private static class ByteBufferIteratorChannel implements ReadableByteChannel {
+
+		private final Iterator<ByteBuffer> iter;
+
+		public ByteBufferIteratorChannel(Iterator<ByteBuffer> iter) {
+			this.iter = iter;
+		}
+
+		private ByteBuffer nextBuffer = null;
+		private boolean open = true;
+
+		private boolean ensureNext() {
+			while (nextBuffer == null || !nextBuffer.hasRemaining()) {
+				if (!iter.hasNext()) {
+					return false;
+				}
+				nextBuffer = iter.next();
+			}
+			return true;
+		}
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			if (!open) {
+				throw new ClosedChannelException();
+			}
+			if (!dst.hasRemaining()) {
+				return 0;
+			}
+			int readSize = 0;
+			while (dst.hasRemaining() && ensureNext()) {
+				int transferSize = Math.min(nextBuffer.remaining(), dst.remaining());
+				if (transferSize == nextBuffer.remaining()) {
+					dst.put(nextBuffer);
+				} else {
+					int limit = nextBuffer.limit();
+					nextBuffer.limit(nextBuffer.position() + transferSize);
+					dst.put(nextBuffer);
+					nextBuffer.limit(limit);
+				}
+				readSize += transferSize;
+			}
+			return readSize == 0 ? -1 : readSize;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return open;
+		}
+
+		@Override
+		public void close() {
+			open = false;
+			nextBuffer = null;
+		}
+	}
+
+	private static class PrefetchingInputStream extends InputStream {
+
+		private static final Object END = new Object();
+
+		private static final class Failure {
+			final Throwable cause;
+
+			Failure(Throwable cause) {
+				this.cause = cause;
+			}
+		}
+
+		private final Iterator<byte[]> iter;
+		/**
+		 * Holds non-empty chunks, followed by either END or a Failure.
+		 */
+		private final BlockingQueue<Object> queue;
+		private final AtomicLong bufferedBytes = new AtomicLong();
+		private volatile boolean closed = false;
+
+		public PrefetchingInputStream(Iterator<byte[]> iter, int maxQueuedChunks) {
+			this.iter = iter;
+			this.queue = new ArrayBlockingQueue<>(maxQueuedChunks);
+		}
+
+		private void produce() {
+			Object last = END;
+			try {
+				while (!closed && iter.hasNext()) {
+					byte[] chunk = iter.next();
+					if (chunk.length > 0) {
+						queue.put(chunk);
+						// Counted once actually queued, so the reader may take it first, see available()
+						bufferedBytes.addAndGet(chunk.length);
+					}
+				}
+			} catch (InterruptedException e) {
+				last = new Failure(e);
+				Thread.currentThread().interrupt();
+			} catch (Throwable t) {
+				last = new Failure(t);
+			}
+			// The consumer may be blocked waiting for it, so this must not be lost to an interruption. Once closed,
+			// nobody waits for it, and the queue may already be full again.
+			boolean interrupted = Thread.interrupted();
+			while (!closed) {
+				try {
+					queue.put(last);
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private byte[] nextArray = null;
+		private int nextIndex = 0;
+		/**
+		 * END or a Failure once taken from the queue.
+		 */
+		private Object last = null;
+
+		private boolean ensureNext(boolean block) throws IOException {
+			while (nextArray == null || nextArray.length <= nextIndex) {
+				if (last != null) {
+					return false;
+				}
+				Object item;
+				try {
+					item = block ? queue.take() : queue.poll();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+				if (item == null) {
+					return false;
+				}
+				if (item instanceof byte[]) {
+					nextArray = (byte[]) item;
+					nextIndex = 0;
+				} else {
+					last = item;
+				}
+			}
+			return true;
+		}
+
+		private void ensureOpen() throws IOException {
+			if (closed) {
+				throw new IOException("Stream closed");
+			}
+		}
+
+		private void checkFailure() throws IOException {
+			ensureOpen();
+			if (last instanceof Failure) {
+				throw new IOException("Prefetching iterator failed", ((Failure) last).cause);
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			ensureOpen();
+			if (!ensureNext(true)) {
+				checkFailure();
+				return -1;
+			}
+			bufferedBytes.decrementAndGet();
+			return nextArray[nextIndex++] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			checkPositionIndexes(off, off + len, b.length);
+			ensureOpen();
+			if (len == 0) {
+				return 0;
+			}
+			if (!ensureNext(true)) {
+				checkFailure();
+				return -1;
+			}
+			int readSize = 0;
+			// Only the first chunk is waited for, later ones are taken only if already queued
+			do {
+				int transferSize = Math.min(nextArray.length - nextIndex, len - readSize);
+				System.arraycopy(nextArray, nextIndex, b, off + readSize, transferSize);
+				nextIndex += transferSize;
+				readSize += transferSize;
+			} while (readSize < len && ensureNext(false));
+			bufferedBytes.addAndGet(-readSize);
+			return readSize;
+		}
+
+		@Override
+		public int available() throws IOException {
+			// Briefly negative when the reader takes a chunk before the producer counts it
+			return closed ? 0 : (int) Math.max(0, Math.min(bufferedBytes.get(), Integer.MAX_VALUE));
+		}
+
+		/**
+		 * Only touches the queue and the closed flag, never the reader's state, so that it can run while another thread
+		 * reads. Clearing unblocks the producer, which then sees the stream closed. END wakes up a reader waiting for
+		 * the next chunk, unless the producer has just queued one, which then does.
+		 */
+		@Override
+		public void close() throws IOException {
+			closed = true;
+			queue.clear();
+			queue.offer(END);
+		}
+	}
+
+	private static class StringIteratorInputStream extends InputStream {
+
+		private final Iterator<String> iter;
+		private final CharsetEncoder encoder;
+		/**
+		 * Encoded bytes not read yet, for reads too short to hold a whole encoded character. Flipped for reading.
+		 */
+		private final ByteBuffer pending;
+		private final byte[] singleByte = new byte[1];
+
+		public StringIteratorInputStream(Iterator<String> iter, CharsetEncoder encoder) {
+			this.iter = iter;
+			this.encoder = encoder;
+			// Room for a surrogate pair, or its replacement
+			this.pending = ByteBuffer.allocate(Math.max(16, (int) Math.ceil(2 * encoder.maxBytesPerChar())));
+			pending.flip();
+		}
+
+		private CharBuffer chars = CharBuffer.allocate(0);
+		private boolean endOfInput = false;
+		private boolean flushed = false;
+
+		@Override
+		public int read() throws IOException {
+			return read(singleByte, 0, 1) < 0 ? -1 : singleByte[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			checkPositionIndexes(off, off + len, b.length);
+			if (len == 0) {
+				return 0;
+			}
+			ByteBuffer out = ByteBuffer.wrap(b, off, len);
+			drainPending(out);
+			encodeInto(out);
+			if (out.position() == off && !flushed) {
+				// Not even a single character fits in the caller's buffer
+				pending.clear();
+				encodeInto(pending);
+				pending.flip();
+				drainPending(out);
+			}
+			int readSize = out.position() - off;
+			return readSize == 0 ? -1 : readSize;
+		}
+
+		private void drainPending(ByteBuffer out) {
+			int transferSize = Math.min(pending.remaining(), out.remaining());
+			out.put(pending.array(), pending.position(), transferSize);
+			pending.position(pending.position() + transferSize);
+		}
+
+		/**
+		 * Encodes until {@code out} cannot hold the next character, or everything has been encoded.
+		 */
+		private void encodeInto(ByteBuffer out) {
+			while (!flushed) {
+				if (!endOfInput) {
+					if (encoder.encode(chars, out, false).isOverflow()) {
+						return;
+					}
+					// Every char was encoded, except perhaps a high surrogate waiting for the next string
+					if (!nextChars()) {
+						endOfInput = true;
+					}
+				} else {
+					if (encoder.encode(chars, out, true).isOverflow() || encoder.flush(out).isOverflow()) {
+						return;
+					}
+					flushed = true;
+				}
+			}
+		}
+
+		private boolean nextChars() {
+			if (!iter.hasNext()) {
+				return false;
+			}
+			String next = iter.next();
+			// A split surrogate pair is rare enough to just join both strings
+			chars = chars.hasRemaining() ? CharBuffer.wrap(chars.toString() + next) : CharBuffer.wrap(next);
+			return true;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return pending.remaining();
+		}
+	}
+
+	private static class CharSequenceIteratorReader extends Reader {
+
+		private final Iterator<? extends CharSequence> iter;
+
+		public CharSequenceIteratorReader(Iterator<? extends CharSequence> iter) {
+			this.iter = iter;
+		}
+
+		private CharSequence nextSequence = null;
+		private int nextIndex = 0;
+		private boolean closed = false;
+
+		private void ensureOpen() throws IOException {
+			if (closed) {
+				throw new IOException("Stream closed");
+			}
+		}
+
+		private boolean ensureNext() {
+			while (nextSequence == null || nextSequence.length() <= nextIndex) {
+				if (!iter.hasNext()) {
+					return false;
+				}
+				nextSequence = iter.next();
+				nextIndex = 0;
+			}
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			ensureOpen();
+			if (!ensureNext()) {
+				return -1;
+			}
+			return nextSequence.charAt(nextIndex++);
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			checkPositionIndexes(off, off + len, cbuf.length);
+			ensureOpen();
+			if (len == 0) {
+				return 0;
+			}
+			if (!ensureNext()) {
+				return -1;
+			}
+			int readSize = Math.min(nextSequence.length() - nextIndex, len);
+			int end = nextIndex + readSize;
+			if (nextSequence instanceof String) {
+				((String) nextSequence).getChars(nextIndex, end, cbuf, off);
+			} else if (nextSequence instanceof StringBuilder) {
+				((StringBuilder) nextSequence).getChars(nextIndex, end, cbuf, off);
+			} else {
+				for (int i = nextIndex; i < end; i++) {
+					cbuf[off++] = nextSequence.charAt(i);
+				}
+			}
+			nextIndex = end;
+			return readSize;
+		}
+
+		@Override
+		public boolean ready() throws IOException {
+			ensureOpen();
+			return nextSequence != null && nextSequence.length() > nextIndex;
+		}
+
+		@Override
+		public void close() throws IOException {
+			closed = true;
+			nextSequence = null;
+		}
+	}
 }
@@ -0,0 +1,547 @@
+/*
+ * Copyright 2020 Agustín Santiago Gutiérrez
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package tk.elsantodel90.utils;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ToIntFunction;
+
+import com.google.common.collect.Maps;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.primitives.Ints;
+
+/**
+ * A utility class for storing big snapshots in files that can be reopened instantly. A snapshot is a list of elements
+ * (or a map) encoded through an {@link ImmutableCodec}, with a table of offsets in front so that any element can be
+ * found without reading the others.
+ * <p>
+ * Opening a snapshot maps the file to memory and returns a read-only view, which decodes each element from the
+ * mapped region every time it is accessed, so the data stays in the OS page cache instead of the heap. Maps also
+ * store a hash index of their keys, so opening them decodes nothing, and a lookup only decodes the keys whose hash
+ * matches. Callers needing an element many times should keep the decoded element themselves.
+ * <p>
+ * Snapshots are written to a temporary file, synced to disk and then atomically moved into place, so a failed write
+ * or a crash leaves any previous file untouched. Writing fails if the file system cannot replace files atomically.
+ * The new file keeps the permissions of the one it replaces. Opening checks that the file is consistent, failing
+ * with an IOException otherwise. The mapping remains valid after the file is closed, and is released by the garbage collector
+ * together with the view. The file must not be modified while a view of it is in use.
+ *
+ * @author <a href=
+ *         "https://github.com/elsantodel90/java-utils">https://github.com/elsantodel90/java-utils</a>
+ *
+ */
+public class MappedSnapshots {
+
+	// Public interface
+
+	public static <W> void writeList(Path file, List<? extends W> elements, ImmutableCodec<W> codec)
+			throws IOException {
+
+		write(file, LIST_MAGIC, elements.size(), elements.iterator(), (element, out) -> codec.write(element, out),
+				null);
+	}
+
+	public static <W> List<W> openList(Path file, ImmutableCodec<W> codec) throws IOException {
+		return new MappedList<>(Snapshot.open(file, LIST_MAGIC), codec);
+	}
+
+	/**
+	 * Each entry is stored as its key followed by its value, in iteration order, and indexed by the hash code of its
+	 * key. Hash codes must thus be the same for every JVM, as they are for the strings, numbers and collections of
+	 * them handled by {@link ImmutableCodec}.
+	 */
+	public static <K, V> void writeMap(Path file, Map<? extends K, ? extends V> map, ImmutableCodec<K> keyCodec,
+			ImmutableCodec<V> valueCodec) throws IOException {
+
+		checkArgument(map.size() <= MAX_INDEXED_SIZE, "Too many entries to index: %s", map.size());
+		write(file, MAP_MAGIC, map.size(), map.entrySet().iterator(), (entry, out) -> {
+			keyCodec.write(entry.getKey(), out);
+			valueCodec.write(entry.getValue(), out);
+		}, entry -> entry.getKey().hashCode());
+	}
+
+	public static <K, V> Map<K, V> openMap(Path file, ImmutableCodec<K> keyCodec, ImmutableCodec<V> valueCodec)
+			throws IOException {
+
+		return new MappedMap<>(Snapshot.open(file, MAP_MAGIC), keyCodec, valueCodec);
+	}
+
+	// Internal implementation
+
+	private MappedSnapshots() {
+	}
+
+	private static final int LIST_MAGIC = 0x534E4150;
+	private static final int MAP_MAGIC = 0x534E414D;
+	private static final int HEADER_SIZE = 8;
+	/** Elements are laid out so that none of them crosses a segment boundary. */
+	private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+	/** The key index of a map takes 8 bytes per slot, and must fit a single mapped region. */
+	private static final int MAX_INDEXED_SIZE = 1 << 26;
+
+	private interface ElementWriter<E> {
+		void write(E element, DataOutputStream out) throws IOException;
+	}
+
+	/**
+	 * Writes a complete snapshot to a temporary file in the same directory, and then replaces {@code file} with it.
+	 */
+	private static <E> void write(Path file, int magic, int size, Iterator<E> elements, ElementWriter<? super E> writer,
+			ToIntFunction<? super E> hasher) throws IOException {
+
+		Path temporary = createTemporary(file);
+		try {
+			writeTo(temporary, magic, size, elements, writer, hasher);
+			Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	/**
+	 * Unlike {@link Files#createTempFile}, which makes the file private to its owner, this gives the temporary file
+	 * the permissions of the file it is going to replace, or the default ones of a new file when there is none.
+	 */
+	private static Path createTemporary(Path file) throws IOException {
+		Path absolute = file.toAbsolutePath();
+		for (;;) {
+			Path temporary = absolute.resolveSibling(absolute.getFileName() + "."
+					+ Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36) + ".tmp");
+			try {
+				Files.createFile(temporary);
+			} catch (FileAlreadyExistsException e) {
+				continue;
+			}
+			try {
+				if (Files.exists(absolute)
+						&& Files.getFileStore(temporary).supportsFileAttributeView(PosixFileAttributeView.class)) {
+					Files.setPosixFilePermissions(temporary, Files.getPosixFilePermissions(absolute));
+				}
+			} catch (IOException | RuntimeException e) {
+				Files.deleteIfExists(temporary);
+				throw e;
+			}
+			return temporary;
+		}
+	}
+
+	/**
+	 * Layout: magic and element count, then the offset of every element (plus the end of the last one) relative to the
+	 * start of the data, then the data. Maps follow it with their key index: its capacity, then a slot per
+	 * {@link HashTables#slot(int, int)} with the hash of the key and the index of the entry plus one (zero for empty
+	 * slots), collisions going to the next slots.
+	 */
+	private static <E> void writeTo(Path file, int magic, int size, Iterator<E> elements,
+			ElementWriter<? super E> writer, ToIntFunction<? super E> hasher) throws IOException {
+
+		long dataStart = HEADER_SIZE + 8L * (size + 1);
+		long[] offsets = new long[size + 1];
+		int[] hashes = hasher == null ? null : new int[size];
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+
+			channel.position(dataStart);
+			// Counting before buffering, since DataOutputStream.size() stops counting at 2GB
+			CountingOutputStream counter =
+					new CountingOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+			DataOutputStream out = new DataOutputStream(counter);
+			for (int i = 0; i < size; i++) {
+				E element = elements.next();
+				if (hashes != null) {
+					hashes[i] = hasher.applyAsInt(element);
+				}
+				writer.write(element, out);
+				offsets[i + 1] = counter.getCount();
+				checkArgument(offsets[i + 1] - offsets[i] <= MAX_SEGMENT_SIZE, "Element %s is too big", i);
+			}
+			if (hashes != null) {
+				writeIndex(hashes, out);
+			}
+			out.flush();
+			ByteBuffer header = ByteBuffer.allocate(Ints.checkedCast(dataStart));
+			header.putInt(magic).putInt(size);
+			for (long offset : offsets) {
+				header.putLong(offset);
+			}
+			header.flip();
+			channel.write(header, 0);
+			// Before the file replaces the previous one, so that a crash cannot leave a partially written snapshot
+			channel.force(true);
+		}
+	}
+
+	private static void writeIndex(int[] hashes, DataOutputStream out) throws IOException {
+		// Even an empty map gets an index, with two empty slots
+		int capacity = HashTables.capacity(Math.max(1, hashes.length));
+		int mask = capacity - 1;
+		int[] slots = new int[2 * capacity];
+		for (int i = 0; i < hashes.length; i++) {
+			int slot = HashTables.slot(hashes[i], mask);
+			while (slots[2 * slot + 1] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[2 * slot] = hashes[i];
+			slots[2 * slot + 1] = i + 1;
+		}
+		out.writeInt(capacity);
+		for (int slot : slots) {
+			out.writeInt(slot);
+		}
+	}
+
+	/**
+	 * The mapped regions of a snapshot file: the offsets table, the data, and whatever follows it.
+	 */
+	private static final class Snapshot {
+
+		private final int size;
+		private final MappedByteBuffer offsets;
+		/** Start of each mapped segment, relative to the start of the data. */
+		private final long[] segmentStarts;
+		private final MappedByteBuffer[] segments;
+		private final MappedByteBuffer trailer;
+
+		private Snapshot(int size, MappedByteBuffer offsets, long[] segmentStarts, MappedByteBuffer[] segments,
+				MappedByteBuffer trailer) {
+
+			this.size = size;
+			this.offsets = offsets;
+			this.segmentStarts = segmentStarts;
+			this.segments = segments;
+			this.trailer = trailer;
+		}
+
+		static Snapshot open(Path file, int magic) throws IOException {
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				if (channel.size() < HEADER_SIZE) {
+					throw new IOException(file + " is not a snapshot");
+				}
+				ByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_SIZE);
+				if (header.getInt() != magic) {
+					throw new IOException(file + " is not a snapshot of the expected kind");
+				}
+				int size = header.getInt();
+				long dataStart = HEADER_SIZE + 8L * (size + 1);
+				if (size < 0 || dataStart > Math.min(channel.size(), Integer.MAX_VALUE)) {
+					throw new IOException(file + " is corrupt: bad size " + size);
+				}
+				MappedByteBuffer offsets = channel.map(MapMode.READ_ONLY, HEADER_SIZE, dataStart - HEADER_SIZE);
+				if (offsets.getLong(0) != 0) {
+					throw new IOException(file + " is corrupt: bad offset 0");
+				}
+				// Greedily pack whole elements into segments of at most MAX_SEGMENT_SIZE bytes
+				List<Long> starts = new ArrayList<>();
+				long segmentStart = 0;
+				starts.add(segmentStart);
+				long previous = 0;
+				for (int i = 1; i <= size; i++) {
+					long offset = offsets.getLong(8 * i);
+					if (offset < previous || offset - previous > MAX_SEGMENT_SIZE) {
+						throw new IOException(file + " is corrupt: bad offset " + i);
+					}
+					if (offset - segmentStart > MAX_SEGMENT_SIZE) {
+						segmentStart = previous;
+						starts.add(segmentStart);
+					}
+					previous = offset;
+				}
+				long dataEnd = previous;
+				if (dataEnd > channel.size() - dataStart) {
+					throw new IOException(file + " is corrupt: data past the end of the file");
+				}
+				long[] segmentStarts = new long[starts.size()];
+				MappedByteBuffer[] segments = new MappedByteBuffer[starts.size()];
+				for (int i = 0; i < segments.length; i++) {
+					segmentStarts[i] = starts.get(i);
+					long segmentEnd = i + 1 < segments.length ? starts.get(i + 1) : dataEnd;
+					segments[i] = channel.map(MapMode.READ_ONLY, dataStart + segmentStarts[i],
+							segmentEnd - segmentStarts[i]);
+				}
+				MappedByteBuffer trailer = channel.map(MapMode.READ_ONLY, dataStart + dataEnd,
+						channel.size() - dataStart - dataEnd);
+				return new Snapshot(size, offsets, segmentStarts, segments, trailer);
+			}
+		}
+
+		/**
+		 * A stream over the bytes of element {@code index}, independent of any other, starting {@code skip} bytes into
+		 * the element.
+		 */
+		DataInputStream element(int index, int skip) {
+			long start = offsets.getLong(8 * index) + skip;
+			long end = offsets.getLong(8 * (index + 1));
+			int segment = segmentOf(start);
+			ByteBuffer bytes = segments[segment].duplicate();
+			bytes.position((int) (start - segmentStarts[segment]));
+			bytes.limit((int) (end - segmentStarts[segment]));
+			return new DataInputStream(new ByteBufferInputStream(bytes));
+		}
+
+		private int segmentOf(long offset) {
+			int low = 0;
+			int high = segmentStarts.length - 1;
+			while (low < high) {
+				int middle = (low + high + 1) >>> 1;
+				if (segmentStarts[middle] <= offset) {
+					low = middle;
+				} else {
+					high = middle - 1;
+				}
+			}
+			return low;
+		}
+	}
+
+	private static final class ByteBufferInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		private ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int readSize = Math.min(buffer.remaining(), len);
+			buffer.get(b, off, readSize);
+			return readSize;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+
+	private static final class MappedList<W> extends AbstractList<W> implements RandomAccess {
+
+		private final Snapshot snapshot;
+		private final ImmutableCodec<W> codec;
+
+		private MappedList(Snapshot snapshot, ImmutableCodec<W> codec) {
+			this.snapshot = snapshot;
+			this.codec = codec;
+		}
+
+		@Override
+		public W get(int index) {
+			checkElementIndex(index, snapshot.size);
+			try {
+				return codec.read(snapshot.element(index, 0));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public int size() {
+			return snapshot.size;
+		}
+	}
+
+	private static final class MappedMap<K, V> extends AbstractMap<K, V> {
+
+		private final Snapshot snapshot;
+		private final ImmutableCodec<K> keyCodec;
+		private final ImmutableCodec<V> valueCodec;
+		private final int mask;
+
+		private MappedMap(Snapshot snapshot, ImmutableCodec<K> keyCodec, ImmutableCodec<V> valueCodec)
+				throws IOException {
+
+			this.snapshot = snapshot;
+			this.keyCodec = keyCodec;
+			this.valueCodec = valueCodec;
+			int capacity = snapshot.trailer.remaining() >= 4 ? snapshot.trailer.getInt(0) : 0;
+			if (Integer.bitCount(capacity) != 1 || snapshot.trailer.remaining() != 4 + 8L * capacity) {
+				throw new IOException("Corrupt key index");
+			}
+			this.mask = capacity - 1;
+		}
+
+		/**
+		 * The stream of the entry whose key equals {@code key}, positioned at its value, or null if there is none.
+		 * Probing stops after visiting every slot, so that an index without empty slots cannot loop forever.
+		 */
+		private DataInputStream find(Object key) throws IOException {
+			if (key == null) {
+				return null;
+			}
+			int hash = key.hashCode();
+			int slot = HashTables.slot(hash, mask);
+			for (int probes = 0; probes <= mask; probes++, slot = (slot + 1) & mask) {
+				int entry = snapshot.trailer.getInt(4 + 8 * slot + 4);
+				if (entry == 0) {
+					return null;
+				}
+				if (entry < 0 || entry > snapshot.size) {
+					throw new IOException("Corrupt key index: entry " + entry + " of " + snapshot.size);
+				}
+				if (snapshot.trailer.getInt(4 + 8 * slot) == hash) {
+					DataInputStream in = snapshot.element(entry - 1, 0);
+					if (key.equals(keyCodec.read(in))) {
+						return in;
+					}
+				}
+			}
+			throw new IOException("Corrupt key index: no empty slot");
+		}
+
+		@Override
+		public V get(Object key) {
+			try {
+				DataInputStream in = find(key);
+				return in == null ? null : valueCodec.read(in);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			try {
+				return find(key) != null;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public Set<K> keySet() {
+			return new AbstractSet<K>() {
+
+				@Override
+				public Iterator<K> iterator() {
+					return new EntryIterator<K>() {
+
+						@Override
+						K read(DataInputStream in) throws IOException {
+							return keyCodec.read(in);
+						}
+					};
+				}
+
+				@Override
+				public boolean contains(Object key) {
+					return containsKey(key);
+				}
+
+				@Override
+				public int size() {
+					return snapshot.size;
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return snapshot.size;
+		}
+
+		@Override
+		public Set<Entry<K, V>> entrySet() {
+			return new AbstractSet<Entry<K, V>>() {
+
+				@Override
+				public Iterator<Entry<K, V>> iterator() {
+					return new EntryIterator<Entry<K, V>>() {
+
+						@Override
+						Entry<K, V> read(DataInputStream in) throws IOException {
+							K key = keyCodec.read(in);
+							return Maps.immutableEntry(key, valueCodec.read(in));
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return snapshot.size;
+				}
+			};
+		}
+
+		/**
+		 * Decodes the entries in the order they were written.
+		 */
+		private abstract class EntryIterator<E> implements Iterator<E> {
+
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return next < snapshot.size;
+			}
+
+			@Override
+			public E next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				try {
+					return read(snapshot.element(next++, 0));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+
+			abstract E read(DataInputStream in) throws IOException;
+		}
+	}
+}
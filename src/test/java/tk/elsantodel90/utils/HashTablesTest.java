@@ -0,0 +1,52 @@
+/*
+ * Copyright 2020 Agustín Santiago Gutiérrez
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package tk.elsantodel90.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+public class HashTablesTest {
+
+	@Test
+	public void testCapacity() {
+		assertEquals(2, HashTables.capacity(1));
+		assertEquals(4, HashTables.capacity(2));
+		assertEquals(8, HashTables.capacity(3));
+		assertEquals(8, HashTables.capacity(4));
+		assertEquals(16, HashTables.capacity(5));
+		assertEquals(1 << 30, HashTables.capacity(HashTables.MAX_SIZE));
+		assertEquals(8, ImmutableIntKeyMap.copyOf(ImmutableMap.of(1, "a", 2, "b", 3, "c", 4, "d")).capacity());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooLarge() {
+		HashTables.capacity(HashTables.MAX_SIZE + 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testEmpty() {
+		HashTables.capacity(0);
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2020 Agustín Santiago Gutiérrez
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package tk.elsantodel90.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static tk.elsantodel90.utils.ImmutableCodec.ofDoubleList;
+import static tk.elsantodel90.utils.ImmutableCodec.ofInteger;
+import static tk.elsantodel90.utils.ImmutableCodec.ofIntList;
+import static tk.elsantodel90.utils.ImmutableCodec.ofList;
+import static tk.elsantodel90.utils.ImmutableCodec.ofLong;
+import static tk.elsantodel90.utils.ImmutableCodec.ofMap;
+import static tk.elsantodel90.utils.ImmutableCodec.ofMultiset;
+import static tk.elsantodel90.utils.ImmutableCodec.ofSet;
+import static tk.elsantodel90.utils.ImmutableCodec.ofSetMultimap;
+import static tk.elsantodel90.utils.ImmutableCodec.ofString;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.primitives.ImmutableDoubleArray;
+import com.google.common.primitives.ImmutableIntArray;
+
+public class ImmutableCodecTest {
+
+	@Test
+	public void testRoundTrip() {
+		ImmutableList<ImmutableMap<String, ImmutableSet<Long>>> value = ImmutableList.of(
+				ImmutableMap.of("a", ImmutableSet.of(1L, -1L, Long.MAX_VALUE, Long.MIN_VALUE), "\u00F1and\u00FA", ImmutableSet.of()),
+				ImmutableMap.of());
+		ImmutableCodec<ImmutableList<ImmutableMap<String, ImmutableSet<Long>>>> codec =
+				ofList(ofMap(ofString(), ofSet(ofLong())));
+		assertEquals(value, codec.fromBytes(codec.toBytes(value)));
+
+		ImmutableMultiset<Integer> multiset = ImmutableMultiset.of(3, 1, 3, -300000, 3);
+		assertEquals(multiset, ofMultiset(ofInteger()).fromBytes(ofMultiset(ofInteger()).toBytes(multiset)));
+
+		ImmutableSetMultimap<String, ImmutableIntArray> multimap = ImmutableSetMultimap.of("x",
+				ImmutableIntArray.of(1, 2), "y", ImmutableIntArray.of(), "x", ImmutableIntArray.of(Integer.MIN_VALUE));
+		ImmutableCodec<ImmutableSetMultimap<String, ImmutableIntArray>> multimapCodec =
+				ofSetMultimap(ofString(), ofIntList());
+		assertEquals(multimap, multimapCodec.fromBytes(multimapCodec.toBytes(multimap)));
+
+		ImmutableDoubleArray doubles = ImmutableDoubleArray.of(0.5, Double.NaN, -0.0);
+		assertEquals(doubles, ofDoubleList().fromBytes(ofDoubleList().toBytes(doubles)));
+	}
+
+	@Test
+	public void testCompact() {
+		ImmutableList<Long> small = ImmutableList.of(1L, -2L, 63L);
+		// The size and each number take a single byte
+		assertEquals(4, ofList(ofLong()).toBytes(small).length);
+
+		ImmutableMap<String, ImmutableSet<Long>> map = ImmutableMap.of("key", ImmutableSet.of(1L, 2L, 3L));
+		assertTrue(ofMap(ofString(), ofSet(ofLong())).toBytes(map).length * 10 < javaSerializedSize(map));
+	}
+
+	@Test
+	public void testCorruptSizes() {
+		// A size of 2^31 - 1 followed by a single byte
+		byte[] corrupt = { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 0x01 };
+		for (ImmutableCodec<?> codec : Arrays.asList(ofString(), ofList(ofLong()), ofMap(ofLong(), ofLong()),
+				ofIntList(), ofDoubleList())) {
+			try {
+				codec.fromBytes(corrupt);
+				fail();
+			} catch (UncheckedIOException e) {
+				assertTrue(e.getCause() instanceof EOFException);
+			}
+		}
+	}
+
+	@Test
+	public void testStrings() {
+		// Plain UTF-8 for well-formed strings, including a pair standing for a supplementary character
+		String wellFormed = "a\u00f1\u20ac\ud83d\ude00";
+		byte[] utf8 = wellFormed.getBytes(StandardCharsets.UTF_8);
+		byte[] expected = new byte[utf8.length + 1];
+		expected[0] = (byte) utf8.length;
+		System.arraycopy(utf8, 0, expected, 1, utf8.length);
+		assertArrayEquals(expected, ofString().toBytes(wellFormed));
+		// Unpaired surrogates round trip too
+		for (String value : Arrays.asList(wellFormed, "\ud83d", "x\ude00y", "\ude00\ud83d", "\ud83d\ud83d\ude00")) {
+			assertEquals(value, ofString().fromBytes(ofString().toBytes(value)));
+		}
+	}
+
+	@Test
+	public void testMalformedString() {
+		// A truncated two byte sequence, an overlong encoding and a code point past U+10FFFF
+		for (byte[] malformed : Arrays.asList(new byte[] { 1, (byte) 0xC3 }, new byte[] { 2, (byte) 0xC0, (byte) 0x80 },
+				new byte[] { 4, (byte) 0xF4, (byte) 0x90, (byte) 0x80, (byte) 0x80 })) {
+			try {
+				ofString().fromBytes(malformed);
+				fail();
+			} catch (UncheckedIOException e) {
+				assertEquals("Malformed string", e.getCause().getMessage());
+			}
+		}
+	}
+
+	@Test
+	public void testIntegerOutOfRange() {
+		byte[] tooLarge = ofLong().toBytes(1L << 31);
+		for (ImmutableCodec<?> codec : Arrays.asList(ofInteger(), ofIntList())) {
+			try {
+				codec.fromBytes(codec == ofIntList() ? concat(new byte[] { 1 }, tooLarge) : tooLarge);
+				fail();
+			} catch (UncheckedIOException e) {
+				assertEquals("Corrupt int " + (1L << 31), e.getCause().getMessage());
+			}
+		}
+		assertEquals(Integer.MIN_VALUE, (int) ofInteger().fromBytes(ofLong().toBytes((long) Integer.MIN_VALUE)));
+	}
+
+	private static byte[] concat(byte[] first, byte[] second) {
+		byte[] result = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, result, first.length, second.length);
+		return result;
+	}
+
+	private static int javaSerializedSize(Object value) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(value);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return bytes.size();
+	}
+}
@@ -23,27 +23,41 @@ package tk.elsantodel90.utils;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static tk.elsantodel90.utils.ImmutableCopier.ofDoubleList;
 import static tk.elsantodel90.utils.ImmutableCopier.ofInteger;
 import static tk.elsantodel90.utils.ImmutableCopier.ofList;
 import static tk.elsantodel90.utils.ImmutableCopier.ofListMultimap;
+import static tk.elsantodel90.utils.ImmutableCopier.ofLong;
+import static tk.elsantodel90.utils.ImmutableCopier.ofLongList;
 import static tk.elsantodel90.utils.ImmutableCopier.ofMap;
 import static tk.elsantodel90.utils.ImmutableCopier.ofMultimap;
 import static tk.elsantodel90.utils.ImmutableCopier.ofMultiset;
+import static tk.elsantodel90.utils.ImmutableCopier.ofSet;
 import static tk.elsantodel90.utils.ImmutableCopier.ofSetMultimap;
 import static tk.elsantodel90.utils.ImmutableCopier.ofString;
 import static tk.elsantodel90.utils.ImmutableCopier.ofValue;
 import static tk.elsantodel90.utils.MapUtils.entriesToMap;
 import static tk.elsantodel90.utils.MapUtils.overwritingDuplicates;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
@@ -55,11 +69,19 @@ import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableMultiset;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedMultiset;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.MultimapBuilder;
 import com.google.common.collect.Multiset;
+import com.google.common.collect.Ordering;
 import com.google.common.collect.SetMultimap;
+import com.google.common.primitives.ImmutableDoubleArray;
+import com.google.common.primitives.ImmutableIntArray;
+import com.google.common.primitives.ImmutableLongArray;
 import com.google.common.reflect.TypeToken;
 
 public class ImmutableCopierTest {
@@ -174,6 +196,568 @@ public class ImmutableCopierTest {
 		assertEquals(vcopy, actualCopy);
 	}
 
+	@Test
+	public void testStructuralSharing() {
+		ImmutableList<ImmutableSet<String>> v = ImmutableList.of(ImmutableSet.of("a", "b"), ImmutableSet.of());
+		assertTrue(v == ImmutableCopier.ofList(ofSet(ofString())).copy(v));
+
+		List<ImmutableSet<String>> mutableOuter = new ArrayList<>(v);
+		ImmutableList<ImmutableSet<String>> copy = ImmutableCopier.ofList(ofSet(ofString())).copy(mutableOuter);
+		assertEquals(v, copy);
+		assertTrue(v.get(0) == copy.get(0));
+
+		ImmutableList<Set<String>> partiallyMutable = ImmutableList.of(ImmutableSet.of("a"), new HashSet<>());
+		ImmutableList<ImmutableSet<String>> partialCopy =
+				ImmutableCopier.ofList(ofSet(ofString())).copy(partiallyMutable);
+		assertTrue((Object) partiallyMutable != partialCopy);
+		assertTrue(partiallyMutable.get(0) == partialCopy.get(0));
+
+		ImmutableMap<String, ImmutableList<Integer>> m = ImmutableMap.of("x", ImmutableList.of(1, 2));
+		assertTrue(m == ImmutableCopier.ofMap(ofString(), ofList(ofInteger())).copy(m));
+
+		ImmutableMap<String, List<Integer>> partiallyMutableMap =
+				ImmutableMap.of("x", ImmutableList.of(1, 2), "y", new ArrayList<>(Arrays.asList(3)), "z", ImmutableList.of());
+		ImmutableMap<String, ImmutableList<Integer>> partialMapCopy =
+				ImmutableCopier.ofMap(ofString(), ofList(ofInteger())).copy(partiallyMutableMap);
+		assertEquals(partiallyMutableMap, partialMapCopy);
+		assertEquals(ImmutableList.copyOf(partiallyMutableMap.keySet()), ImmutableList.copyOf(partialMapCopy.keySet()));
+		assertTrue(partiallyMutableMap.get("x") == partialMapCopy.get("x"));
+
+		ImmutableSetMultimap<Integer, ImmutableList<String>> mm = ImmutableSetMultimap.of(1, ImmutableList.of("a"));
+		assertTrue(mm == ImmutableCopier.ofMultimap(ofInteger(), ofList(ofString())).copy(mm));
+		assertTrue(mm == ImmutableCopier.ofSetMultimap(ofInteger(), ofList(ofString())).copy(mm));
+	}
+
+	@Test
+	public void testParallel() {
+		List<Map<String, List<Long>>> v = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			Map<String, List<Long>> m = new HashMap<>();
+			for (long j = 0; j < i % 7; j++) {
+				m.put("k" + j, Arrays.asList(j, (long) i));
+			}
+			v.add(m);
+		}
+		ImmutableList<ImmutableMap<String, ImmutableList<Long>>> sequentialCopy =
+				ImmutableCopier.ofList(ofMap(ofString(), ofList(ofLong()))).copy(v);
+		assertEquals(v, sequentialCopy);
+		assertEquals(sequentialCopy,
+				ImmutableCopier.ofList(ofMap(ofString(), ofList(ofLong())).parallel(3)).parallel(100).copy(v));
+
+		ForkJoinPool pool = new ForkJoinPool(3);
+		try {
+			assertEquals(sequentialCopy,
+					ImmutableCopier.ofList(ofMap(ofString(), ofList(ofLong()))).parallel(100, pool).copy(v));
+			ImmutableList<ImmutableMap<String, ImmutableList<Long>>> shared =
+					ImmutableCopier.ofList(ofMap(ofString(), ofList(ofLong()))).parallel(100, pool).copy(sequentialCopy);
+			assertTrue(sequentialCopy == shared);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testInterned() {
+		Map<Integer, Set<String>> v = new HashMap<>();
+		for (int i = 0; i < 10; i++) {
+			v.put(i, new HashSet<>(Arrays.asList(new String("a"), new String("b" + i % 2))));
+		}
+		ImmutableMap<Integer, ImmutableSet<String>> copy =
+				ImmutableCopier.ofMap(ofInteger(), ofSet(ofString().interned()).interned()).copy(v);
+		assertEquals(v, copy);
+		assertTrue(copy.get(0) == copy.get(2));
+		assertTrue(copy.get(1) == copy.get(3));
+		assertTrue(copy.get(0) != copy.get(1));
+		assertTrue(copy.get(0).asList().get(0) == copy.get(1).asList().get(0)
+				|| copy.get(0).asList().get(0) == copy.get(1).asList().get(1));
+
+		ImmutableCopier<Set<? extends String>, ImmutableSet<String>> interning = ofSet(ofString()).interned();
+		assertTrue(interning.copy(v.get(4)) == interning.copy(new HashSet<>(v.get(4))));
+	}
+
+	@Test
+	public void testIncremental() {
+		ImmutableCopier<Map<? extends String, ? extends List<? extends Set<? extends Integer>>>, ImmutableMap<String, ImmutableList<ImmutableSet<Integer>>>> copier =
+				ofMap(ofString(), ofList(ofSet(ofInteger())));
+		Map<String, List<Set<Integer>>> v = new HashMap<>();
+		for (int i = 0; i < 5; i++) {
+			v.put("k" + i, new ArrayList<>(Arrays.asList(new HashSet<>(Arrays.asList(i, i + 1)), new HashSet<>())));
+		}
+		ImmutableMap<String, ImmutableList<ImmutableSet<Integer>>> first = copier.copy(v);
+		assertTrue(first == copier.copy(v, first));
+
+		v.get("k2").get(1).add(7);
+		ImmutableMap<String, ImmutableList<ImmutableSet<Integer>>> second = copier.copy(v, first);
+		assertEquals(v, second);
+		assertTrue(first.get("k1") == second.get("k1"));
+		assertTrue(first.get("k2") != second.get("k2"));
+		assertTrue(first.get("k2").get(0) == second.get("k2").get(0));
+
+		v.get("k3").remove(1);
+		v.put("k9", new ArrayList<>());
+		ImmutableMap<String, ImmutableList<ImmutableSet<Integer>>> third = copier.copy(v, second);
+		assertEquals(v, third);
+		assertTrue(second.get("k3").get(0) == third.get("k3").get(0));
+		assertTrue(second.get("k4") == third.get("k4"));
+
+		v.remove("k9");
+		v.get("k3").add(new HashSet<>());
+		assertEquals(v, copier.copy(v, third));
+		assertEquals(v, copier.copy(v, null));
+
+		List<String> strings = new ArrayList<>(Arrays.asList("a", "b"));
+		ImmutableList<String> strings1 = ofList(ofString()).copy(strings);
+		assertTrue(strings1 == ofList(ofString()).copy(strings, strings1));
+		strings.remove(1);
+		assertEquals(strings, ofList(ofString()).copy(strings, strings1));
+
+		ListMultimap<String, List<String>> multimap = helperMultimap();
+		ImmutableListMultimap<String, ImmutableList<String>> multimap1 =
+				ofListMultimap(ofString(), ofList(ofString())).copy(multimap);
+		assertTrue(multimap1 == ofListMultimap(ofString(), ofList(ofString())).copy(multimap, multimap1));
+		multimap.put("pepe", Arrays.asList("tres"));
+		ImmutableListMultimap<String, ImmutableList<String>> multimap2 =
+				ofListMultimap(ofString(), ofList(ofString())).copy(multimap, multimap1);
+		assertEquals(multimap, multimap2);
+		assertTrue(multimap1.get("pepes").get(0) == multimap2.get("pepes").get(0));
+	}
+
+	@Test
+	public void testPrimitiveLists() {
+		assertEquals(ImmutableIntArray.of(3, 1, 2), ImmutableCopier.ofIntList().copy(Arrays.asList(3, 1, 2)));
+		assertEquals(ImmutableLongArray.of(5L), ImmutableCopier.ofLongList().copy(Collections.singleton(5L)));
+		assertEquals(ImmutableDoubleArray.of(), ImmutableCopier.ofDoubleList().copy(new ArrayList<>()));
+
+		Map<String, List<Long>> series = new HashMap<>();
+		series.put("a", new ArrayList<>(Arrays.asList(1L, 2L, 3L)));
+		series.put("b", new ArrayList<>(Arrays.asList(-1L)));
+		ImmutableMap<String, ImmutableLongArray> copy = ofMap(ofString(), ofLongList()).copy(series);
+		assertEquals(ImmutableMap.of("a", ImmutableLongArray.of(1L, 2L, 3L), "b", ImmutableLongArray.of(-1L)), copy);
+
+		series.get("b").add(-2L);
+		ImmutableMap<String, ImmutableLongArray> secondCopy = ofMap(ofString(), ofLongList()).copy(series, copy);
+		assertTrue(copy.get("a") == secondCopy.get("a"));
+		assertEquals(ImmutableLongArray.of(-1L, -2L), secondCopy.get("b"));
+
+		ImmutableList<ImmutableDoubleArray> doubles =
+				ofList(ofDoubleList()).copy(Arrays.asList(Arrays.asList(Double.NaN, 1.5)));
+		assertTrue(doubles == ofList(ofDoubleList()).copy(Arrays.asList(Arrays.asList(Double.NaN, 1.5)), doubles));
+	}
+
+	@Test
+	public void testSorted() {
+		TreeSet<String> sorted = new TreeSet<>(Arrays.asList("c", "a", "b"));
+		ImmutableSortedSet<String> copy = ImmutableCopier.ofSortedSet(ofString()).copy(sorted);
+		assertEquals(ImmutableList.of("a", "b", "c"), copy.asList());
+		assertTrue(copy == ImmutableCopier.ofSortedSet(ofString()).copy(copy));
+		ImmutableSortedSet<String> reversed =
+				ImmutableCopier.ofSortedSet(Comparator.<String>reverseOrder(), ofString()).copy(sorted);
+		assertEquals(ImmutableList.of("c", "b", "a"), reversed.asList());
+
+		Set<List<Integer>> lists = new HashSet<>(Arrays.asList(Arrays.asList(2, 1), Arrays.asList(1, 2)));
+		ImmutableSortedSet<ImmutableList<Integer>> sortedLists = ImmutableCopier
+				.ofSortedSet(Ordering.<Integer>natural().lexicographical(), ofList(ofInteger())).copy(lists);
+		assertEquals(ImmutableList.of(ImmutableList.of(1, 2), ImmutableList.of(2, 1)), sortedLists.asList());
+
+		Map<Integer, List<String>> map = new TreeMap<>(Comparator.reverseOrder());
+		map.put(1, Arrays.asList("a"));
+		map.put(2, Arrays.asList("b"));
+		ImmutableSortedMap<Integer, ImmutableList<String>> sortedMap =
+				ImmutableCopier.ofSortedMap(ofInteger(), ofList(ofString())).copy(map);
+		assertEquals(map, sortedMap);
+		assertEquals(ImmutableList.of(1, 2), sortedMap.keySet().asList());
+		assertTrue(sortedMap == ImmutableCopier.ofSortedMap(ofInteger(), ofList(ofString())).copy(sortedMap));
+
+		Multiset<String> multiset = HashMultiset.create(Arrays.asList("b", "a", "b"));
+		ImmutableSortedMultiset<String> sortedMultiset = ImmutableCopier.ofSortedMultiset(ofString()).copy(multiset);
+		assertEquals(multiset, sortedMultiset);
+		assertEquals(ImmutableList.of("a", "b", "b"), sortedMultiset.asList());
+	}
+
+	@Test
+	public void testIteratorAndStreamSources() {
+		List<List<String>> lists = Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("a", "b"), Arrays.asList());
+		assertEquals(ImmutableCopier.ofList(ofList(ofString())).copy(lists),
+				ImmutableCopier.ofListFromIterator(ofList(ofString())).copy(lists.iterator()));
+		assertEquals(ImmutableSet.copyOf(lists), ImmutableCopier.ofSetFromStream(ofList(ofString())).copy(lists.stream()));
+		assertEquals(HashMultiset.create(lists),
+				ImmutableCopier.ofMultisetFromStream(ofList(ofString())).copy(lists.parallelStream()));
+
+		Map<Integer, List<String>> map = new HashMap<>();
+		map.put(1, Arrays.asList("a"));
+		map.put(2, Arrays.asList("b", "c"));
+		assertEquals(map, ImmutableCopier.ofMapFromIterator(ofInteger(), ofList(ofString()))
+				.copy(map.entrySet().iterator()));
+		assertEquals(map, ImmutableCopier.ofMapFromStream(ofInteger(), ofList(ofString()))
+				.copy(map.entrySet().stream()));
+	}
+
+	@Test
+	public void testLazy() {
+		ImmutableCopier.CopyStatistics statistics = new ImmutableCopier.CopyStatistics();
+		List<String> second = new ArrayList<>(Arrays.asList("c"));
+		List<List<String>> lists = Arrays.asList(ImmutableList.of("a", "b"), second);
+		List<ImmutableList<String>> copy = ImmutableCopier.ofLazyList(ofList(ofString()).instrumented("e", statistics))
+				.copy(lists);
+		// Mutable elements are copied right away, immutable ones on first access
+		assertEquals(1, statistics.getCopies());
+		second.add("d");
+		assertEquals(ImmutableList.of("c"), copy.get(1));
+		assertEquals(ImmutableList.of("a", "b"), copy.get(0));
+		assertEquals(2, statistics.getCopies());
+		assertTrue(copy.get(0) == copy.get(0));
+		assertEquals(2, statistics.getCopies());
+
+		Map<Integer, List<String>> map = new HashMap<>();
+		List<String> mutable = new ArrayList<>(Arrays.asList("b", "c"));
+		map.put(1, ImmutableList.of("a"));
+		map.put(2, mutable);
+		Map<Integer, ImmutableList<String>> mapCopy = ImmutableCopier.ofLazyMap(ofInteger(), ofList(ofString())).copy(map);
+		mutable.clear();
+		assertEquals(ImmutableMap.of(1, ImmutableList.of("a"), 2, ImmutableList.of("b", "c")), mapCopy);
+		assertTrue(mapCopy.get(1) == mapCopy.get(1));
+
+		// Immutable containers holding mutable ones are not immutable all the way down, so they are copied right away
+		List<String> inner = new ArrayList<>(Arrays.asList("before"));
+		List<ImmutableList<ImmutableList<String>>> nestedCopy = ImmutableCopier.ofLazyList(ofList(ofList(ofString())))
+				.copy(Arrays.asList(ImmutableList.of(inner)));
+		inner.set(0, "after");
+		assertEquals(ImmutableList.of(ImmutableList.of(ImmutableList.of("before"))), nestedCopy);
+	}
+
+	@Test
+	public void testInstrumented() {
+		ImmutableCopier.CopyStatistics outer = new ImmutableCopier.CopyStatistics();
+		ImmutableCopier.CopyStatistics inner = new ImmutableCopier.CopyStatistics();
+		ImmutableCopier<List<? extends List<? extends String>>, ImmutableList<ImmutableList<String>>> copier =
+				ImmutableCopier.ofList(ofList(ofString()).instrumented("inner", inner)).instrumented("outer", outer);
+		List<List<String>> lists = Arrays.asList(Arrays.asList("a", "b"), ImmutableList.of("c"));
+		ImmutableList<ImmutableList<String>> copy = copier.copy(lists);
+		assertEquals(lists, copy);
+		assertEquals(1, outer.getCopies());
+		assertEquals(0, outer.getSharedCopies());
+		assertEquals(2, outer.getElements());
+		assertEquals(2, inner.getCopies());
+		assertEquals(1, inner.getSharedCopies());
+		assertEquals(3, inner.getElements());
+		assertTrue(outer.getNanos() >= inner.getNanos());
+
+		assertTrue(copy == copier.copy(copy));
+		assertEquals(2, outer.getCopies());
+		assertEquals(1, outer.getSharedCopies());
+		// The outer level always goes through its sub-copier, while the inner one copies strings in a single step
+		assertEquals(0, outer.getFastPathCopies());
+		assertEquals(inner.getCopies(), inner.getFastPathCopies());
+		assertEquals(0, outer.getBytes());
+
+		ImmutableCopier.CopyStatistics sized = new ImmutableCopier.CopyStatistics();
+		ImmutableCopier<List<? extends List<? extends String>>, ImmutableList<ImmutableList<String>>> sizedCopier =
+				ImmutableCopier.ofList(ofList(ofString())).instrumented("sized", sized, true);
+		ImmutableList<ImmutableList<String>> sizedCopy = sizedCopier.copy(lists);
+		assertEquals(sizedCopier.estimateRetainedBytes(sizedCopy), sized.getBytes());
+		sizedCopier.copy(sizedCopy);
+		assertEquals(sizedCopier.estimateRetainedBytes(sizedCopy), sized.getBytes());
+	}
+
+	@Test
+	public void testPreservingSharing() {
+		Set<String> shared = new HashSet<>(Arrays.asList("a", "b"));
+		List<String> sharedList = new ArrayList<>(Arrays.asList("c"));
+		Map<Integer, Set<String>> map = new HashMap<>();
+		Map<Integer, List<String>> lists = new HashMap<>();
+		for (int i = 0; i < 100; i++) {
+			map.put(i, i % 2 == 0 ? shared : new HashSet<>(shared));
+			lists.put(i, sharedList);
+		}
+		ImmutableMap<Integer, ImmutableSet<String>> copy =
+				ImmutableCopier.ofMap(ofInteger(), ofSet(ofString())).preservingSharing().copy(map);
+		assertEquals(map, copy);
+		assertTrue(copy.get(0) == copy.get(2));
+		assertTrue(copy.get(0) != copy.get(1));
+
+		ImmutableCopier<List<? extends Map<? extends Integer, ? extends List<? extends String>>>, ImmutableList<ImmutableMap<Integer, ImmutableList<String>>>> copier =
+				ImmutableCopier.ofList(ofMap(ofInteger(), ofList(ofString())).parallel(10)).preservingSharing();
+		ImmutableList<ImmutableMap<Integer, ImmutableList<String>>> listCopy = copier.copy(Arrays.asList(lists, lists));
+		assertTrue(listCopy.get(0) == listCopy.get(1));
+		assertTrue(listCopy.get(0).get(0) == listCopy.get(0).get(99));
+		assertTrue(copier.copy(listCopy) == listCopy);
+	}
+
+	@Test
+	public void testPreservingSharingAcrossCopiers() {
+		Set<String> shared = new HashSet<>(Arrays.asList("b", "a"));
+		Map<Set<String>, Set<String>> map = Collections.singletonMap(shared, shared);
+		ImmutableMap<ImmutableSet<String>, ImmutableSortedSet<String>> copy = ImmutableCopier
+				.ofMap(ofSet(ofString()), ImmutableCopier.ofSortedSet(ofString())).preservingSharing().copy(map);
+		ImmutableSortedSet<String> value = copy.values().iterator().next();
+		assertEquals(ImmutableList.of("a", "b"), value.asList());
+		assertTrue(!(copy.keySet().iterator().next() instanceof ImmutableSortedSet));
+
+		List<Set<String>> lists = Arrays.asList(shared, shared);
+		ImmutableList<ImmutableSet<String>> listCopy = ImmutableCopier.ofList(ofSet(ofString())).preservingSharing()
+				.copy(lists);
+		assertTrue(listCopy.get(0) == listCopy.get(1));
+	}
+
+	@Test
+	public void testGroupedMultimap() {
+		ListMultimap<String, List<String>> interleaved = LinkedListMultimap.create();
+		interleaved.put("a", Arrays.asList("1"));
+		interleaved.put("b", ImmutableList.of("2"));
+		interleaved.put("a", ImmutableList.of("3"));
+		ImmutableListMultimap<String, ImmutableList<String>> copy =
+				ImmutableCopier.ofListMultimap(ofString(), ofList(ofString())).copy(interleaved);
+		assertEquals(ImmutableListMultimap.copyOf(interleaved), copy);
+		assertTrue(copy.get("b").get(0) == interleaved.get("b").get(0));
+
+		ImmutableListMultimap<String, List<String>> partiallyMutable = ImmutableListMultimap.of("a",
+				ImmutableList.of("1"), "a", ImmutableList.of("2"), "b", ImmutableList.of("3"), "b", Arrays.asList("4"));
+		ImmutableListMultimap<String, ImmutableList<String>> partialCopy =
+				ImmutableCopier.ofListMultimap(ofString(), ofList(ofString())).copy(partiallyMutable);
+		assertEquals(partiallyMutable, partialCopy);
+		assertTrue(partialCopy.get("a").get(1) == partiallyMutable.get("a").get(1));
+		assertTrue(partialCopy.get("b").get(0) == partiallyMutable.get("b").get(0));
+	}
+
+	@Test
+	public void testBean() {
+		ImmutableCopier<Order, Order> copier = ImmutableCopier.ofBean(Order.class)
+				.field("lines", new TypeToken<List<String>>() {}, ofList(ofString()))
+				.field("tags", new TypeToken<Set<String>>() {}, ofSet(ofString()))
+				.build();
+		Order order = new Order("o-1");
+		order.lines = new ArrayList<>(Arrays.asList("a", "b"));
+		order.tags = null;
+		order.quantity = 3;
+		Order copy = copier.copy(order);
+		assertTrue(copy != order);
+		assertEquals("o-1", ((Entity) copy).id);
+		assertEquals(3, copy.quantity);
+		assertEquals(ImmutableList.of("a", "b"), copy.lines);
+		assertTrue(copy.lines instanceof ImmutableList);
+		assertTrue(copy.tags == null);
+	}
+
+	@Test
+	public void testBeanHiddenField() {
+		ImmutableCopier<SpecialOrder, SpecialOrder> copier = ImmutableCopier.ofBean(SpecialOrder.class)
+				.field("lines", new TypeToken<List<String>>() {}, ofList(ofString()))
+				.build();
+		SpecialOrder order = new SpecialOrder();
+		List<String> hiddenLines = new ArrayList<>(Arrays.asList("hidden"));
+		((Order) order).lines = hiddenLines;
+		order.lines = new ArrayList<>(Arrays.asList("visible"));
+		SpecialOrder copy = copier.copy(order);
+		assertTrue(copy.lines instanceof ImmutableList);
+		assertEquals(ImmutableList.of("visible"), copy.lines);
+		assertTrue(((Order) copy).lines == hiddenLines);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBeanUnknownField() {
+		ImmutableCopier.ofBean(Order.class).field("missing", String.class, ofString());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBeanWrongFieldType() {
+		ImmutableCopier.ofBean(Order.class).field("lines", new TypeToken<List<Integer>>() {}, ofList(ofInteger()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBeanSubclass() {
+		ImmutableCopier.ofBean(Order.class).build().copy(new SpecialOrder());
+	}
+
+	private static class Entity {
+		private final String id;
+
+		Entity(String id) {
+			this.id = id;
+		}
+	}
+
+	private static class Order extends Entity {
+		private int quantity;
+		private List<String> lines;
+		private Set<String> tags;
+
+		@SuppressWarnings("unused")
+		private Order() {
+			this(null);
+		}
+
+		Order(String id) {
+			super(id);
+		}
+	}
+
+	private static class SpecialOrder extends Order {
+		private List<String> lines;
+
+		SpecialOrder() {
+			super("special");
+		}
+	}
+
+	@Test
+	public void testEstimateRetainedBytes() {
+		ImmutableCopier<List<? extends Map<? extends String, ? extends Set<? extends Long>>>, ImmutableList<ImmutableMap<String, ImmutableSet<Long>>>> copier =
+				ImmutableCopier.ofList(ofMap(ofString(), ofSet(ofLong())));
+		ImmutableList<ImmutableMap<String, ImmutableSet<Long>>> small = copier.copy(Arrays.asList(
+				ImmutableMap.of("a", ImmutableSet.of(1L))));
+		ImmutableList<ImmutableMap<String, ImmutableSet<Long>>> big = copier.copy(Arrays.asList(
+				ImmutableMap.of("a", ImmutableSet.of(1L, 2L, 3L), "bb", ImmutableSet.of(4L))));
+		assertTrue(copier.estimateRetainedBytes(small) > 0);
+		assertTrue(copier.estimateRetainedBytes(big) > copier.estimateRetainedBytes(small));
+		assertEquals(0, copier.estimateRetainedBytes(ImmutableList.of()));
+
+		// Shared instances are only counted once
+		ImmutableSet<Long> shared = ImmutableSet.of(1L, 2L);
+		ImmutableList<ImmutableSet<Long>> twice = ImmutableList.of(shared, shared);
+		ImmutableList<ImmutableSet<Long>> once = ImmutableList.of(shared);
+		ImmutableCopier<List<? extends Set<? extends Long>>, ImmutableList<ImmutableSet<Long>>> listCopier =
+				ImmutableCopier.ofList(ofSet(ofLong()));
+		assertTrue(listCopier.estimateRetainedBytes(twice) - listCopier.estimateRetainedBytes(once) <= 8);
+
+		// The list itself, plus the two distinct strings
+		assertEquals(48 + 2000, ImmutableCopier.ofList(ofString().sizedBy(s -> 1000))
+				.estimateRetainedBytes(ImmutableList.of("a", "b", "a")));
+	}
+
+	@Test
+	public void testEstimateLazyRetainedBytes() {
+		List<List<String>> lists = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			List<String> list = new ArrayList<>();
+			for (int j = 0; j < 100; j++) {
+				list.add(i + "-" + j);
+			}
+			lists.add(list);
+		}
+		long eager = ImmutableCopier.ofList(ofList(ofString())).estimateRetainedBytes(
+				ImmutableCopier.ofList(ofList(ofString())).copy(lists));
+		ImmutableCopier<List<? extends List<? extends String>>, List<ImmutableList<String>>> lazyCopier =
+				ImmutableCopier.ofLazyList(ofList(ofString()));
+		// Mutable elements are copied eagerly, so they are counted, plus a few bytes per element for laziness
+		long lazy = lazyCopier.estimateRetainedBytes(lazyCopier.copy(lists));
+		assertTrue(lazy >= eager);
+		assertTrue(lazy <= eager + 64 * lists.size());
+
+		// Deferred elements are only counted once copied
+		List<ImmutableList<String>> deferred = lazyCopier.copy(Arrays.asList(ImmutableList.of("a", "b")));
+		long before = lazyCopier.estimateRetainedBytes(deferred);
+		deferred.get(0);
+		assertTrue(lazyCopier.estimateRetainedBytes(deferred) > before);
+
+		ImmutableCopier<Map<? extends Integer, ? extends List<? extends String>>, Map<Integer, ImmutableList<String>>> lazyMapCopier =
+				ImmutableCopier.ofLazyMap(ofInteger(), ofList(ofString()));
+		Map<Integer, List<String>> map = ImmutableMap.of(1, lists.get(0));
+		assertTrue(lazyMapCopier.estimateRetainedBytes(lazyMapCopier.copy(map)) > ImmutableCopier.ofList(ofString())
+				.estimateRetainedBytes(ImmutableList.copyOf(lists.get(0))));
+	}
+
+	@Test
+	public void testPrimitiveKeyMaps() {
+		Map<Long, List<String>> map = new HashMap<>();
+		map.put(Long.MIN_VALUE, Arrays.asList("a"));
+		map.put(3L, Arrays.asList("b", "c"));
+		ImmutableLongKeyMap<ImmutableList<String>> copy = ImmutableCopier.ofLongKeyMap(ofList(ofString())).copy(map);
+		assertEquals(map, copy.asMap());
+		assertEquals(ImmutableList.of("b", "c"), copy.get(3L));
+
+		Map<Integer, Set<String>> intMap = new HashMap<>();
+		intMap.put(1, new HashSet<>(Arrays.asList("a")));
+		ImmutableCopier<Map<Integer, ? extends Set<? extends String>>, ImmutableIntKeyMap<ImmutableSet<String>>> copier =
+				ImmutableCopier.ofIntKeyMap(ofSet(ofString()));
+		ImmutableIntKeyMap<ImmutableSet<String>> intCopy = copier.copy(intMap);
+		assertEquals(ImmutableSet.of("a"), intCopy.get(1));
+		assertTrue(copier.estimateRetainedBytes(intCopy) < ImmutableCopier.ofMap(ofInteger(), ofSet(ofString()))
+				.estimateRetainedBytes(ImmutableMap.copyOf(intCopy.asMap())));
+	}
+
+	@Test
+	public void testCopyAll() {
+		Set<String> shared = new HashSet<>(Arrays.asList("a", "b"));
+		List<List<Set<String>>> batch = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			batch.add(Arrays.asList(shared, new HashSet<>(Arrays.asList("c" + i))));
+		}
+		ImmutableCopier<List<? extends Set<? extends String>>, ImmutableList<ImmutableSet<String>>> copier =
+				ImmutableCopier.ofList(ofSet(ofString()));
+		ImmutableList<ImmutableList<ImmutableSet<String>>> copies = copier.copyAll(batch);
+		assertEquals(batch, copies);
+		assertTrue(copies.get(0).get(0) != copies.get(1).get(0));
+
+		ImmutableList<ImmutableList<ImmutableSet<String>>> sharedCopies = copier.preservingSharing().copyAll(batch);
+		assertEquals(batch, sharedCopies);
+		assertTrue(sharedCopies.get(0).get(0) == sharedCopies.get(999).get(0));
+
+		ImmutableList<ImmutableList<ImmutableSet<String>>> parallelCopies =
+				copier.preservingSharing().copyAll(batch.parallelStream());
+		assertEquals(batch, parallelCopies);
+		assertTrue(parallelCopies.get(0).get(0) == parallelCopies.get(999).get(0));
+		assertEquals(batch, copier.copyAll(batch.stream()));
+	}
+
+	@Test
+	public void testConcurrentSources() throws Exception {
+		ConcurrentHashMap<Integer, List<String>> map = new ConcurrentHashMap<>();
+		for (int i = 0; i < 5000; i++) {
+			map.put(i, Arrays.asList("v" + i));
+		}
+		AtomicInteger changes = new AtomicInteger(-1);
+		ImmutableCopier<ConcurrentMap<? extends Integer, ? extends List<? extends String>>, ImmutableMap<Integer, ImmutableList<String>>> copier =
+				ImmutableCopier.ofConcurrentMap(ofInteger(), ofList(ofString()), changes::set);
+		assertEquals(map, copier.copy(map));
+		assertEquals(0, changes.get());
+
+		AtomicBoolean done = new AtomicBoolean();
+		Thread writer = new Thread(() -> {
+			for (int i = 0; !done.get(); i++) {
+				map.put(i % 10000, Arrays.asList("w" + i));
+				map.remove((i * 7) % 5000);
+			}
+		});
+		writer.start();
+		try {
+			for (int i = 0; i < 10; i++) {
+				ImmutableMap<Integer, ImmutableList<String>> copy = copier.parallel(100).copy(map);
+				assertTrue(copy.size() > 0);
+				assertTrue(changes.get() >= 0);
+			}
+		} finally {
+			done.set(true);
+			writer.join();
+		}
+		copier.copy(map);
+		assertEquals(0, changes.get());
+
+		// Removing an entry not copied yet is counted, "k" coming before "l" in a ConcurrentHashMap
+		ConcurrentMap<String, List<String>> removed = new ConcurrentHashMap<>();
+		removed.put("k", new AbstractList<String>() {
+
+			@Override
+			public String get(int index) {
+				return "old";
+			}
+
+			@Override
+			public int size() {
+				removed.remove("l");
+				return 1;
+			}
+		});
+		removed.put("l", Arrays.asList("other"));
+		assertEquals(ImmutableMap.of("k", ImmutableList.of("old")),
+				ImmutableCopier.ofConcurrentMap(ofString(), ofList(ofString()), changes::set).copy(removed));
+		assertEquals(1, changes.get());
+
+		ConcurrentLinkedQueue<String> queue = new ConcurrentLinkedQueue<>(Arrays.asList("a", "b", "c"));
+		assertEquals(ImmutableList.of("a", "b", "c"),
+				ImmutableCopier.ofConcurrentCollection(ofString(), changes::set).parallel(1).copy(queue));
+		assertEquals(0, changes.get());
+	}
+
 	private static ListMultimap<String, List<String>> helperMultimap() {
 		ListMultimap<String, List<String>> ret = MultimapBuilder.hashKeys().arrayListValues().build();
 		ret.put("pepe", Arrays.asList("juan", "dos", "dos"));
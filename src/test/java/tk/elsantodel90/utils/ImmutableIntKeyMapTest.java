@@ -0,0 +1,94 @@
+/*
+ * Copyright 2020 Agustín Santiago Gutiérrez
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package tk.elsantodel90.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.ImmutableIntArray;
+
+public class ImmutableIntKeyMapTest {
+
+	@Test
+	public void testLookups() {
+		Map<Integer, String> map = new HashMap<>();
+		for (int i = -1000; i < 1000; i += 3) {
+			map.put(i * 65536, "v" + i);
+		}
+		ImmutableIntKeyMap<String> copy = ImmutableIntKeyMap.copyOf(map);
+		assertEquals(map.size(), copy.size());
+		for (Map.Entry<Integer, String> entry : map.entrySet()) {
+			assertEquals(entry.getValue(), copy.get(entry.getKey()));
+		}
+		assertEquals(null, copy.get(1));
+		assertFalse(copy.containsKey(65536));
+		assertTrue(copy.containsKey(-1000 * 65536));
+		assertEquals("x", copy.getOrDefault(7, "x"));
+		assertEquals(map, copy.asMap());
+		assertEquals(map.hashCode(), copy.hashCode());
+		assertEquals(ImmutableSet.copyOf(map.keySet()), ImmutableSet.copyOf(copy.keys().asList()));
+	}
+
+	@Test
+	public void testEmptyAndEquality() {
+		assertTrue(ImmutableIntKeyMap.copyOf(ImmutableMap.of()).isEmpty());
+		assertTrue(ImmutableIntKeyMap.of() == ImmutableIntKeyMap.copyOf(new HashMap<>()));
+		assertEquals(ImmutableIntArray.of(), ImmutableIntKeyMap.of().keys());
+		assertEquals(ImmutableIntKeyMap.copyOf(ImmutableMap.of(1, "a", 2, "b")),
+				ImmutableIntKeyMap.copyOf(ImmutableMap.of(2, "b", 1, "a")));
+		assertFalse(ImmutableIntKeyMap.copyOf(ImmutableMap.of(1, "a")).equals(ImmutableIntKeyMap.copyOf(ImmutableMap.of(1, "b"))));
+		assertEquals("{5=x}", ImmutableIntKeyMap.copyOf(ImmutableMap.of(5, "x")).toString());
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void testNullValue() {
+		Map<Integer, String> map = new HashMap<>();
+		map.put(1, null);
+		ImmutableIntKeyMap.copyOf(map);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooLarge() {
+		ImmutableIntKeyMap.copyOf(new AbstractMap<Integer, String>() {
+
+			@Override
+			public Set<Entry<Integer, String>> entrySet() {
+				return ImmutableSet.of();
+			}
+
+			@Override
+			public int size() {
+				return (1 << 29) + 1;
+			}
+		});
+	}
+}
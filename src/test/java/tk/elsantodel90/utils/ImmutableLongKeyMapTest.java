@@ -0,0 +1,101 @@
+/*
+ * Copyright 2020 Agustín Santiago Gutiérrez
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package tk.elsantodel90.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.ImmutableLongArray;
+
+public class ImmutableLongKeyMapTest {
+
+	@Test
+	public void testLookups() {
+		Map<Long, String> map = new HashMap<>();
+		for (long i = -1000; i < 1000; i += 3) {
+			map.put(i << 32, "v" + i);
+		}
+		map.put(Long.MIN_VALUE, "min");
+		map.put(Long.MAX_VALUE, "max");
+		map.put(-1L, "minus one");
+		ImmutableLongKeyMap<String> copy = ImmutableLongKeyMap.copyOf(map);
+		assertEquals(map.size(), copy.size());
+		for (Map.Entry<Long, String> entry : map.entrySet()) {
+			assertEquals(entry.getValue(), copy.get(entry.getKey()));
+		}
+		assertEquals(null, copy.get(1));
+		assertEquals("min", copy.get(1L << 63));
+		assertEquals("max", copy.get(Long.MAX_VALUE));
+		assertEquals("minus one", copy.get(-1));
+		assertFalse(copy.containsKey(1L << 32));
+		assertFalse(copy.containsKey(Integer.MIN_VALUE));
+		assertTrue(copy.containsKey(-1000L << 32));
+		assertEquals("x", copy.getOrDefault(7, "x"));
+		assertEquals(map, copy.asMap());
+		assertEquals(map.hashCode(), copy.hashCode());
+		assertEquals(ImmutableSet.copyOf(map.keySet()), ImmutableSet.copyOf(copy.keys().asList()));
+	}
+
+	@Test
+	public void testEmptyAndEquality() {
+		assertTrue(ImmutableLongKeyMap.copyOf(ImmutableMap.of()).isEmpty());
+		assertTrue(ImmutableLongKeyMap.of() == ImmutableLongKeyMap.copyOf(new HashMap<>()));
+		assertEquals(ImmutableLongArray.of(), ImmutableLongKeyMap.of().keys());
+		assertEquals(ImmutableLongKeyMap.copyOf(ImmutableMap.of(1L, "a", 2L, "b")),
+				ImmutableLongKeyMap.copyOf(ImmutableMap.of(2L, "b", 1L, "a")));
+		assertFalse(ImmutableLongKeyMap.copyOf(ImmutableMap.of(1L, "a")).equals(ImmutableLongKeyMap.copyOf(ImmutableMap.of(1L, "b"))));
+		assertEquals("{5=x}", ImmutableLongKeyMap.copyOf(ImmutableMap.of(5L, "x")).toString());
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void testNullValue() {
+		Map<Long, String> map = new HashMap<>();
+		map.put(1L, null);
+		ImmutableLongKeyMap.copyOf(map);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooLarge() {
+		ImmutableLongKeyMap.copyOf(new AbstractMap<Long, String>() {
+
+			@Override
+			public Set<Entry<Long, String>> entrySet() {
+				return ImmutableSet.of();
+			}
+
+			@Override
+			public int size() {
+				return (1 << 29) + 1;
+			}
+		});
+	}
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright 2020 Agustín Santiago Gutiérrez
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package tk.elsantodel90.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CharStreams;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+public class InputStreamUtilsTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private static final List<String> STRINGS = Arrays.asList("", "hola ", "\u00F1and\u00FA ", "\u20AC", "", "\uD83D", "\uDE00 fin");
+
+	private static byte[] expectedUtf8() {
+		return String.join("", STRINGS).getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testStringIteratorBulkRead() throws IOException {
+		InputStream in = InputStreamUtils.utf8StreamFromStringIterator(STRINGS.iterator());
+		assertArrayEquals(expectedUtf8(), ByteStreams.toByteArray(in));
+		assertEquals(-1, in.read());
+	}
+
+	@Test
+	public void testStringIteratorTinyReads() throws IOException {
+		InputStream in = InputStreamUtils.utf8StreamFromStringIterator(STRINGS.iterator());
+		byte[] expected = expectedUtf8();
+		byte[] actual = new byte[expected.length];
+		for (int i = 0; i < actual.length; i++) {
+			int value = in.read();
+			assertEquals(expected[i] & 0xFF, value);
+			actual[i] = (byte) value;
+		}
+		assertEquals(-1, in.read());
+		assertEquals(-1, in.read(new byte[2], 0, 2));
+	}
+
+	@Test
+	public void testStringIteratorReplacesMalformedInput() throws IOException {
+		List<String> strings = Arrays.asList("a\uDE00b", "c\uD83D");
+		InputStream in = InputStreamUtils.inputStreamFromStringIterator(strings.iterator(), StandardCharsets.US_ASCII);
+		assertArrayEquals("a?bc?".getBytes(StandardCharsets.US_ASCII), ByteStreams.toByteArray(in));
+	}
+
+	@Test
+	public void testReaderFromCharSequenceIterator() throws IOException {
+		List<CharSequence> sequences = Arrays.asList("ab", new StringBuilder("cd"), "", CharBuffer.wrap("ef"));
+		Reader reader = InputStreamUtils.readerFromCharSequenceIterator(sequences.iterator());
+		assertEquals('a', reader.read());
+		char[] buffer = new char[8];
+		assertEquals(1, reader.read(buffer, 0, 8));
+		assertEquals("abcdef", "a" + buffer[0] + CharStreams.toString(reader));
+		assertEquals(-1, reader.read(buffer, 0, 8));
+	}
+
+	@Test
+	public void testReaderClose() throws IOException {
+		Reader reader = InputStreamUtils.readerFromCharSequenceIterator(Arrays.asList("ab", "cd").iterator());
+		assertEquals('a', reader.read());
+		reader.close();
+		reader.close();
+		for (int attempt = 0; attempt < 3; attempt++) {
+			try {
+				switch (attempt) {
+				case 0:
+					reader.read();
+					break;
+				case 1:
+					reader.read(new char[2], 0, 2);
+					break;
+				default:
+					reader.ready();
+				}
+				fail();
+			} catch (IOException e) {
+				assertEquals("Stream closed", e.getMessage());
+			}
+		}
+	}
+
+	@Test
+	public void testReaderFromStringIterator() throws IOException {
+		Reader reader = InputStreamUtils.readerFromStringIterator(STRINGS.iterator());
+		assertEquals(String.join("", STRINGS), CharStreams.toString(reader));
+	}
+
+	@Test
+	public void testPrefetchingRead() throws IOException {
+		List<byte[]> chunks = Arrays.asList(new byte[] { 1, 2 }, new byte[0], new byte[] { 3 }, new byte[] { -4, 5, 6 });
+		InputStream in = InputStreamUtils.prefetchingInputStreamFromByteArrayIterator(chunks.iterator(), 1);
+		assertEquals(1, in.read());
+		assertArrayEquals(new byte[] { 2, 3, -4, 5, 6 }, ByteStreams.toByteArray(in));
+		assertEquals(-1, in.read());
+		assertEquals(0, in.available());
+	}
+
+	@Test
+	public void testPrefetchingAvailable() throws Exception {
+		List<byte[]> chunks = Arrays.asList(new byte[] { 1, 2 }, new byte[] { 3 }, new byte[] { 4, 5, 6 });
+		InputStream in = InputStreamUtils.prefetchingInputStreamFromByteArrayIterator(chunks.iterator(), 4);
+		assertEquals(1, in.read());
+		for (int attempt = 0; attempt < 500 && in.available() < 5; attempt++) {
+			Thread.sleep(10);
+		}
+		assertEquals(5, in.available());
+	}
+
+	@Test
+	public void testPrefetchingPropagatesFailure() throws IOException {
+		Iterator<byte[]> failing = Iterators.concat(Iterators.singletonIterator(new byte[] { 7 }),
+				new AbstractIterator<byte[]>() {
+					@Override
+					protected byte[] computeNext() {
+						throw new IllegalStateException("page fetch failed");
+					}
+				});
+		InputStream in = InputStreamUtils.prefetchingInputStreamFromByteArrayIterator(failing, 2);
+		assertEquals(7, in.read());
+		try {
+			in.read();
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	@Test
+	public void testPrefetchingCloseStopsProducer() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Iterator<byte[]> endless = Iterators.cycle(new byte[] { 1, 2, 3 });
+			InputStream in = InputStreamUtils.prefetchingInputStreamFromByteArrayIterator(endless, 2, executor);
+			assertEquals(1, in.read());
+			in.close();
+			executor.shutdown();
+			assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+			try {
+				in.read();
+				fail();
+			} catch (IOException expected) {
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testPrefetchingCloseWakesUpReader() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			Iterator<byte[]> stalling = Iterators.concat(Iterators.singletonIterator(new byte[] { 1 }),
+					new AbstractIterator<byte[]>() {
+						@Override
+						protected byte[] computeNext() {
+							Uninterruptibles.awaitUninterruptibly(release);
+							return endOfData();
+						}
+					});
+			InputStream in = InputStreamUtils.prefetchingInputStreamFromByteArrayIterator(stalling, 2, executor);
+			assertEquals(1, in.read());
+			Future<Integer> blocked = executor.submit(() -> in.read());
+			Thread.sleep(50);
+			in.close();
+			try {
+				blocked.get(5, TimeUnit.SECONDS);
+				fail();
+			} catch (ExecutionException e) {
+				assertEquals("Stream closed", e.getCause().getMessage());
+			}
+		} finally {
+			release.countDown();
+			executor.shutdownNow();
+		}
+	}
+
+	private static Iterator<ByteBuffer> byteBuffers() {
+		ByteBuffer direct = ByteBuffer.allocateDirect(3);
+		direct.put(new byte[] { 4, 5, 6 }).flip();
+		return Arrays.asList(ByteBuffer.wrap(new byte[] { 0, 1, 2, 3 }, 1, 2), ByteBuffer.allocate(0), ByteBuffer.wrap(
+				new byte[] { 3 }), direct).iterator();
+	}
+
+	@Test
+	public void testInputStreamFromByteBufferIterator() throws IOException {
+		InputStream in = InputStreamUtils.inputStreamFromByteBufferIterator(byteBuffers());
+		assertEquals(1, in.read());
+		assertArrayEquals(new byte[] { 2, 3, 4, 5, 6 }, ByteStreams.toByteArray(in));
+		assertEquals(-1, in.read());
+	}
+
+	@Test
+	public void testByteBufferReadFillsAcrossChunks() throws IOException {
+		InputStream in = InputStreamUtils.inputStreamFromByteBufferIterator(byteBuffers());
+		byte[] buffer = new byte[8];
+		assertEquals(6, in.read(buffer, 1, 7));
+		assertArrayEquals(new byte[] { 0, 1, 2, 3, 4, 5, 6, 0 }, buffer);
+		assertEquals(-1, in.read(buffer, 0, 8));
+	}
+
+	@Test
+	public void testByteBufferSkip() throws IOException {
+		InputStream in = InputStreamUtils.inputStreamFromByteBufferIterator(byteBuffers());
+		assertEquals(3, in.skip(3));
+		assertEquals(4, in.read());
+		assertEquals(2, in.skip(10));
+		assertEquals(0, in.skip(1));
+		assertEquals(-1, in.read());
+	}
+
+	@Test
+	public void testByteBufferTransferAndReadAll() throws Exception {
+		InputStream in = InputStreamUtils.inputStreamFromByteBufferIterator(byteBuffers());
+		assertEquals(1, in.read());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		// Invoked reflectively, as these methods only exist in InputStream since Java 9 and 11
+		assertEquals(5L, in.getClass().getMethod("transferTo", OutputStream.class).invoke(in, out));
+		assertArrayEquals(new byte[] { 2, 3, 4, 5, 6 }, out.toByteArray());
+
+		in = InputStreamUtils.inputStreamFromByteBufferIterator(byteBuffers());
+		in.skip(1);
+		assertArrayEquals(new byte[] { 2, 3, 4 }, (byte[]) in.getClass().getMethod("readNBytes", int.class)
+				.invoke(in, 3));
+		assertArrayEquals(new byte[] { 5, 6 }, (byte[]) in.getClass().getMethod("readAllBytes").invoke(in));
+	}
+
+	@Test
+	public void testChannelFromByteBufferIterator() throws IOException {
+		ReadableByteChannel channel = InputStreamUtils.channelFromByteBufferIterator(byteBuffers());
+		ByteBuffer dst = ByteBuffer.allocate(4);
+		assertEquals(4, channel.read(dst));
+		assertArrayEquals(new byte[] { 1, 2, 3, 4 }, dst.array());
+		dst.clear();
+		assertEquals(2, channel.read(dst));
+		assertEquals(-1, channel.read(dst));
+		channel.close();
+		try {
+			channel.read(dst);
+			fail();
+		} catch (ClosedChannelException expected) {
+		}
+	}
+
+	@Test
+	public void testWriteByteBufferIterator() throws IOException {
+		File file = temporaryFolder.newFile();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+			assertEquals(6, InputStreamUtils.writeByteBufferIterator(byteBuffers(), channel));
+		}
+		assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 6 }, Files.readAllBytes(file.toPath()));
+	}
+
+	private static InputStream byteArrays() {
+		byte[] shared = { 3, 4 };
+		return InputStreamUtils.inputStreamFromByteArrayIterator(Arrays.asList(new byte[] { -1, 1, 2 }, new byte[0],
+				shared, shared, new byte[] { 5 }).iterator());
+	}
+
+	@Test
+	public void testByteArrayReadFillsAcrossChunks() throws IOException {
+		InputStream in = byteArrays();
+		assertEquals(255, in.read());
+		byte[] buffer = new byte[10];
+		assertEquals(7, in.read(buffer, 1, 9));
+		assertArrayEquals(new byte[] { 0, 1, 2, 3, 4, 3, 4, 5, 0, 0 }, buffer);
+		assertEquals(-1, in.read(buffer, 0, 10));
+	}
+
+	@Test
+	public void testByteArraySkip() throws IOException {
+		InputStream in = byteArrays();
+		assertEquals(4, in.skip(4));
+		assertEquals(4, in.read());
+		assertEquals(3, in.skip(10));
+		assertEquals(0, in.skip(1));
+		assertEquals(-1, in.read());
+	}
+
+	@Test
+	public void testByteArrayTransferAndReadAll() throws Exception {
+		InputStream in = byteArrays();
+		assertEquals(255, in.read());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		// Invoked reflectively, as these methods only exist in InputStream since Java 9 and 11
+		assertEquals(7L, in.getClass().getMethod("transferTo", OutputStream.class).invoke(in, out));
+		assertArrayEquals(new byte[] { 1, 2, 3, 4, 3, 4, 5 }, out.toByteArray());
+
+		in = byteArrays();
+		in.skip(1);
+		assertArrayEquals(new byte[] { 1, 2, 3, 4, 3 }, (byte[]) in.getClass().getMethod("readNBytes", int.class)
+				.invoke(in, 5));
+		assertArrayEquals(new byte[] { 4, 5 }, (byte[]) in.getClass().getMethod("readAllBytes").invoke(in));
+	}
+}
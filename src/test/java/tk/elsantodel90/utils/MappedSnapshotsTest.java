@@ -0,0 +1,209 @@
+/*
+ * Copyright 2020 Agustín Santiago Gutiérrez
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package tk.elsantodel90.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static tk.elsantodel90.utils.ImmutableCodec.ofInteger;
+import static tk.elsantodel90.utils.ImmutableCodec.ofList;
+import static tk.elsantodel90.utils.ImmutableCodec.ofLong;
+import static tk.elsantodel90.utils.ImmutableCodec.ofSet;
+import static tk.elsantodel90.utils.ImmutableCodec.ofString;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+public class MappedSnapshotsTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testList() throws IOException {
+		Path file = folder.newFile().toPath();
+		ImmutableList<ImmutableList<String>> list =
+				ImmutableList.of(ImmutableList.of("a", "b"), ImmutableList.of(), ImmutableList.of("\u00F1"));
+		MappedSnapshots.writeList(file, list, ofList(ofString()));
+		List<ImmutableList<String>> snapshot = MappedSnapshots.openList(file, ofList(ofString()));
+		assertEquals(list, snapshot);
+		assertEquals(ImmutableList.of("\u00F1"), snapshot.get(2));
+
+		MappedSnapshots.writeList(file, ImmutableList.of(), ofInteger());
+		assertTrue(MappedSnapshots.openList(file, ofInteger()).isEmpty());
+	}
+
+	@Test
+	public void testMap() throws IOException {
+		Path file = folder.newFile().toPath();
+		ImmutableMap<String, ImmutableSet<Long>> map =
+				ImmutableMap.of("x", ImmutableSet.of(1L, 2L), "y", ImmutableSet.of(), "zz", ImmutableSet.of(-5L));
+		MappedSnapshots.writeMap(file, map, ofString(), ofSet(ofLong()));
+		Map<String, ImmutableSet<Long>> snapshot = MappedSnapshots.openMap(file, ofString(), ofSet(ofLong()));
+		assertEquals(map, snapshot);
+		assertEquals(ImmutableSet.of(-5L), snapshot.get("zz"));
+		assertEquals(null, snapshot.get("w"));
+		assertEquals(map.keySet().asList(), ImmutableList.copyOf(snapshot.keySet()));
+	}
+
+	@Test
+	public void testMapLookups() throws IOException {
+		Path file = folder.newFile().toPath();
+		ImmutableMap.Builder<String, Integer> builder = ImmutableMap.builder();
+		for (int i = 0; i < 1000; i++) {
+			builder.put(Integer.toString(i), i);
+		}
+		// "Aa" and "BB" share their hash code
+		ImmutableMap<String, Integer> map = builder.put("Aa", -1).put("BB", -2).build();
+		MappedSnapshots.writeMap(file, map, ofString(), ofInteger());
+		Map<String, Integer> snapshot = MappedSnapshots.openMap(file, ofString(), ofInteger());
+		for (Map.Entry<String, Integer> entry : map.entrySet()) {
+			assertEquals(entry.getValue(), snapshot.get(entry.getKey()));
+		}
+		assertEquals(-2, (int) snapshot.get("BB"));
+		assertFalse(snapshot.containsKey("1000"));
+		assertFalse(snapshot.containsKey(7));
+		assertFalse(snapshot.containsKey(null));
+
+		MappedSnapshots.writeMap(file, ImmutableMap.of(), ofString(), ofInteger());
+		assertTrue(MappedSnapshots.openMap(file, ofString(), ofInteger()).isEmpty());
+	}
+
+	@Test
+	public void testFailedWriteKeepsFile() throws IOException {
+		Path file = folder.newFile().toPath();
+		MappedSnapshots.writeList(file, ImmutableList.of("a"), ofString());
+		try {
+			MappedSnapshots.writeList(file, Arrays.asList("b", null), ofString());
+			fail();
+		} catch (NullPointerException e) {
+			// expected
+		}
+		assertEquals(ImmutableList.of("a"), MappedSnapshots.openList(file, ofString()));
+		try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+			assertEquals(ImmutableList.of(file), files.collect(Collectors.toList()));
+		}
+	}
+
+	@Test
+	public void testPermissions() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("snapshot");
+		Assume.assumeTrue(Files.getFileStore(folder.getRoot().toPath())
+				.supportsFileAttributeView(PosixFileAttributeView.class));
+		// A new snapshot gets the permissions of any new file, not just the owner's ones of a temporary file
+		MappedSnapshots.writeList(file, ImmutableList.of("a"), ofString());
+		Path plain = folder.newFile().toPath();
+		assertEquals(Files.getPosixFilePermissions(plain), Files.getPosixFilePermissions(file));
+
+		Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-rw-r--");
+		Files.setPosixFilePermissions(file, permissions);
+		MappedSnapshots.writeList(file, ImmutableList.of("b"), ofString());
+		assertEquals(permissions, Files.getPosixFilePermissions(file));
+		assertEquals(ImmutableList.of("b"), MappedSnapshots.openList(file, ofString()));
+	}
+
+	@Test
+	public void testCorruptList() throws IOException {
+		Path file = folder.newFile().toPath();
+		// Negative and too large sizes, a first offset other than zero, an offset going backwards, and the end of
+		// the data past the end of the file
+		int[][] corruptions = { { 4, -1 }, { 4, 1000 }, { 12, 1 }, { 20, 5 }, { 24, -1 }, { 28, 1 }, { 36, 100 } };
+		for (int[] corruption : corruptions) {
+			MappedSnapshots.writeList(file, ImmutableList.of("a", "b", "c"), ofString());
+			overwrite(file, corruption[0], corruption[1]);
+			try {
+				MappedSnapshots.openList(file, ofString());
+				fail("Offset " + corruption[0]);
+			} catch (IOException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testCorruptKeyIndex() throws IOException {
+		Path file = folder.newFile().toPath();
+		ImmutableMap<String, Integer> map = ImmutableMap.of("a", 1);
+		// Two slots follow the capacity at the end of the file: an entry beyond the map, then a full index
+		for (int entry : new int[] { 2, 1 }) {
+			MappedSnapshots.writeMap(file, map, ofString(), ofInteger());
+			long slots = Files.size(file) - 16;
+			for (int slot = 0; slot < 2; slot++) {
+				overwrite(file, slots + 8 * slot, "b".hashCode());
+				overwrite(file, slots + 8 * slot + 4, entry);
+			}
+			Map<String, Integer> snapshot = MappedSnapshots.openMap(file, ofString(), ofInteger());
+			try {
+				snapshot.get("a");
+				fail();
+			} catch (UncheckedIOException e) {
+				assertTrue(e.getCause().getMessage().startsWith("Corrupt key index"));
+			}
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testListIsNotAMap() throws IOException {
+		Path file = folder.newFile().toPath();
+		MappedSnapshots.writeList(file, ImmutableList.of("a"), ofString());
+		MappedSnapshots.openMap(file, ofString(), ofString());
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotASnapshot() throws IOException {
+		Path file = folder.newFile().toPath();
+		Files.write(file, new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9});
+		MappedSnapshots.openList(file, ofString());
+	}
+
+	private static void overwrite(Path file, long position, int value) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			ByteBuffer bytes = ByteBuffer.allocate(4).putInt(value);
+			bytes.flip();
+			channel.write(bytes, position);
+		}
+	}
+}